@@ -0,0 +1,392 @@
+package com.robaho.jleveldb;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * memory table that stores the keys, values and skip list nodes in off-heap chunks, so a memory segment is a few large
+ * buffers rather than millions of small arrays for the garbage collector to trace. Nodes are referenced by address,
+ * (chunk index << 32 | offset), and are never removed, so the list is maintained with compare-and-set on the next
+ * addresses only.
+ * <p>
+ * A node is [long value address][int key length][int height][long next[height]][key bytes], and a value is
+ * [int length][bytes]. A key is replaced by setting the value address of its node.
+ */
+class ArenaMemTable implements MemTable {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_HEIGHT = 12;
+    private static final int VALUE = 0;
+    private static final int KEY_LEN = 8;
+    private static final int HEIGHT = 12;
+    private static final int NEXT = 16;
+    // the head node is the first allocation, so address 0 is also used as null
+    private static final long HEAD = 0;
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private volatile Chunk current;
+    private final AtomicLong allocated = new AtomicLong();
+
+    private static class Chunk {
+        final ByteBuffer buffer;
+        final int index;
+        final AtomicInteger used = new AtomicInteger();
+
+        Chunk(ByteBuffer buffer, int index) {
+            this.buffer = buffer;
+            this.index = index;
+        }
+    }
+
+    ArenaMemTable() {
+        current = newChunk(CHUNK_SIZE);
+        long head = allocate(NEXT + MAX_HEIGHT * 8);
+        ByteBuffer buffer = chunk(head);
+        buffer.putInt(offset(head) + HEIGHT, MAX_HEIGHT);
+        // an empty table has size 0
+        allocated.set(0);
+    }
+
+    private synchronized Chunk newChunk(int size) {
+        // the chunks must be 8 byte aligned for the atomic access to the node addresses
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + 7).alignedSlice(8).order(ByteOrder.nativeOrder());
+        ByteBuffer[] copy = new ByteBuffer[chunks.length + 1];
+        System.arraycopy(chunks, 0, copy, 0, chunks.length);
+        copy[chunks.length] = buffer;
+        chunks = copy;
+        return new Chunk(buffer, chunks.length - 1);
+    }
+
+    private long allocate(int size) {
+        size = (size + 7) & ~7;
+        allocated.addAndGet(size);
+        if (size > CHUNK_SIZE / 4) {
+            // large values get their own chunk so the remainder of the current chunk is not wasted
+            return address(newChunk(size).index, 0);
+        }
+        while (true) {
+            Chunk c = current;
+            int offset = c.used.getAndAdd(size);
+            if (offset + size <= CHUNK_SIZE) {
+                return address(c.index, offset);
+            }
+            synchronized (this) {
+                if (current == c) {
+                    current = newChunk(CHUNK_SIZE);
+                }
+            }
+        }
+    }
+
+    private static long address(int chunk, int offset) {
+        return ((long) chunk << 32) | offset;
+    }
+
+    private ByteBuffer chunk(long address) {
+        return chunks[(int) (address >>> 32)];
+    }
+
+    private static int offset(long address) {
+        return (int) address;
+    }
+
+    private long next(long node, int level) {
+        return (long) LONGS.getVolatile(chunk(node), offset(node) + NEXT + level * 8);
+    }
+
+    private void setNext(long node, int level, long next) {
+        LONGS.setVolatile(chunk(node), offset(node) + NEXT + level * 8, next);
+    }
+
+    private boolean casNext(long node, int level, long expected, long next) {
+        return LONGS.compareAndSet(chunk(node), offset(node) + NEXT + level * 8, expected, next);
+    }
+
+    private long valueAddress(long node) {
+        return (long) LONGS.getVolatile(chunk(node), offset(node) + VALUE);
+    }
+
+    /** compares the node key to the key, using the same signed byte order as Arrays.compare */
+    private int compare(long node, byte[] key) {
+        ByteBuffer buffer = chunk(node);
+        int offset = offset(node);
+        int len = buffer.getInt(offset + KEY_LEN);
+        int keyOffset = offset + NEXT + buffer.getInt(offset + HEIGHT) * 8;
+        int n = Math.min(len, key.length);
+        for (int i = 0; i < n; i++) {
+            int result = Byte.compare(buffer.get(keyOffset + i), key[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return len - key.length;
+    }
+
+    private byte[] key(long node) {
+        ByteBuffer buffer = chunk(node);
+        int offset = offset(node);
+        byte[] key = new byte[buffer.getInt(offset + KEY_LEN)];
+        buffer.get(offset + NEXT + buffer.getInt(offset + HEIGHT) * 8, key);
+        return key;
+    }
+
+    private byte[] value(long node) {
+        long value = valueAddress(node);
+        ByteBuffer buffer = chunk(value);
+        int len = buffer.getInt(offset(value));
+        if (len == 0) {
+            return KeyValue.EMPTY;
+        }
+        byte[] bytes = new byte[len];
+        buffer.get(offset(value) + 4, bytes);
+        return bytes;
+    }
+
+    private static int randomHeight() {
+        var random = ThreadLocalRandom.current();
+        int height = 1;
+        while (height < MAX_HEIGHT && random.nextInt(4) == 0) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * finds the nodes before and after the key at each level
+     * @return the node with the key, or 0 if there is none
+     */
+    private long findSplice(byte[] key, long[] preds, long[] succs) {
+        long x = HEAD;
+        long next = 0;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            while (true) {
+                next = next(x, level);
+                if (next == 0 || compare(next, key) >= 0) {
+                    break;
+                }
+                x = next;
+            }
+            preds[level] = x;
+            succs[level] = next;
+        }
+        return next != 0 && compare(next, key) == 0 ? next : 0;
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        long v = allocate(4 + value.length);
+        ByteBuffer buffer = chunk(v);
+        buffer.putInt(offset(v), value.length);
+        buffer.put(offset(v) + 4, value);
+
+        long[] preds = new long[MAX_HEIGHT];
+        long[] succs = new long[MAX_HEIGHT];
+        long node = 0;
+        int height = 0;
+        while (true) {
+            long found = findSplice(key, preds, succs);
+            if (found != 0) {
+                LONGS.setVolatile(chunk(found), offset(found) + VALUE, v);
+                return;
+            }
+            if (node == 0) {
+                height = randomHeight();
+                node = allocate(NEXT + height * 8 + key.length);
+                buffer = chunk(node);
+                int offset = offset(node);
+                buffer.putLong(offset + VALUE, v);
+                buffer.putInt(offset + KEY_LEN, key.length);
+                buffer.putInt(offset + HEIGHT, height);
+                buffer.put(offset + NEXT + height * 8, key);
+            }
+            setNext(node, 0, succs[0]);
+            // the node is visible to readers once it is linked at level 0
+            if (casNext(preds[0], 0, succs[0], node)) {
+                break;
+            }
+        }
+        for (int level = 1; level < height; level++) {
+            while (true) {
+                setNext(node, level, succs[level]);
+                if (casNext(preds[level], level, succs[level], node)) {
+                    break;
+                }
+                // another node was inserted after the predecessor, which is still before the key
+                long x = preds[level];
+                long next;
+                while ((next = next(x, level)) != 0 && compare(next, key) < 0) {
+                    x = next;
+                }
+                preds[level] = x;
+                succs[level] = next;
+            }
+        }
+    }
+
+    private long findGreaterOrEqual(byte[] key) {
+        long x = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next;
+            while ((next = next(x, level)) != 0 && compare(next, key) < 0) {
+                x = next;
+            }
+        }
+        return next(x, 0);
+    }
+
+    private long findLessThan(byte[] key) {
+        long x = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next;
+            while ((next = next(x, level)) != 0 && compare(next, key) < 0) {
+                x = next;
+            }
+        }
+        return x;
+    }
+
+    private long findLast() {
+        long x = HEAD;
+        for (int level = MAX_HEIGHT - 1; level >= 0; level--) {
+            long next;
+            while ((next = next(x, level)) != 0) {
+                x = next;
+            }
+        }
+        return x;
+    }
+
+    private long find(byte[] key) {
+        long node = findGreaterOrEqual(key);
+        return node != 0 && compare(node, key) == 0 ? node : 0;
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        long node = find(key);
+        return node == 0 ? null : value(node);
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer dst) {
+        long node = find(key);
+        if (node == 0) {
+            return -1;
+        }
+        long value = valueAddress(node);
+        ByteBuffer buffer = chunk(value);
+        int len = buffer.getInt(offset(value));
+        dst.put(buffer.slice(offset(value) + 4, len));
+        return len;
+    }
+
+    @Override
+    public ByteBuffer getView(byte[] key) {
+        long node = find(key);
+        if (node == 0) {
+            return null;
+        }
+        // values are never modified once added, and the view retains the chunk
+        long value = valueAddress(node);
+        ByteBuffer buffer = chunk(value);
+        return buffer.slice(offset(value) + 4, buffer.getInt(offset(value))).asReadOnlyBuffer();
+    }
+
+    @Override
+    public LookupIterator lookup(byte[] lower, byte[] upper) {
+        long start = lower == null ? next(HEAD, 0) : findGreaterOrEqual(lower);
+        return new LookupIterator() {
+            long node = start;
+            byte[] key;
+
+            @Override
+            public byte[] peekKey() {
+                if (key == null && node != 0) {
+                    key = ArenaMemTable.this.key(node);
+                    if (upper != null && Arrays.compare(key, upper) > 0) {
+                        node = 0;
+                        key = null;
+                    }
+                }
+                return key;
+            }
+
+            @Override
+            public KeyValue next() {
+                if (peekKey() == null) {
+                    return null;
+                }
+                var kv = new KeyValue(key, value(node));
+                node = ArenaMemTable.this.next(node, 0);
+                key = null;
+                return kv;
+            }
+        };
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new Cursor() {
+            long node;
+
+            @Override
+            public void seek(byte[] key) {
+                node = findGreaterOrEqual(key);
+            }
+
+            @Override
+            public void seekToFirst() {
+                node = ArenaMemTable.this.next(HEAD, 0);
+            }
+
+            @Override
+            public void seekToLast() {
+                node = findLast();
+                if (node == HEAD) {
+                    node = 0;
+                }
+            }
+
+            @Override
+            public boolean valid() {
+                return node != 0;
+            }
+
+            @Override
+            public void next() {
+                node = ArenaMemTable.this.next(node, 0);
+            }
+
+            @Override
+            public void prev() {
+                node = findLessThan(ArenaMemTable.this.key(node));
+                if (node == HEAD) {
+                    node = 0;
+                }
+            }
+
+            @Override
+            public byte[] key() {
+                return ArenaMemTable.this.key(node);
+            }
+
+            @Override
+            public byte[] value() {
+                return ArenaMemTable.this.value(node);
+            }
+        };
+    }
+
+    /** the bytes allocated for the nodes and values, including replaced values */
+    @Override
+    public long size() {
+        return allocated.get();
+    }
+}
@@ -0,0 +1,154 @@
+package com.robaho.jleveldb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * runs the flushes and merges of all open databases on a fixed number of shared threads, so a process with many
+ * databases does not need a thread per database, and an idle database uses no thread at all. Jobs are submitted when
+ * a database needs work, and are not repeated until they are submitted again.
+ * <p>
+ * Flushes run before merges, since writes stall while memory segments wait to be flushed. At most threads-1 merges
+ * run at once, so a thread is always available for a flush. The queued merges are run most urgent first, where the
+ * urgency is measured when a thread becomes available, since the database may have changed while the merge was queued.
+ */
+class BackgroundScheduler {
+    static final BackgroundScheduler shared = new BackgroundScheduler(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+    // runs the parts of a merge or open that run in parallel, such as the runs of Merger.mergeDiskSegments0Exclusive,
+    // its subcompactions and the segments loaded by DiskSegment.loadSegments, so the threads used by all databases are
+    // bounded
+    static final ExecutorService workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "db worker " + next.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    abstract static class Job implements Runnable {
+        final boolean flush;
+
+        Job(boolean flush) {
+            this.flush = flush;
+        }
+
+        /** @return the priority of a merge, higher is more urgent */
+        abstract double urgency();
+
+        /** @return true if the database was closed, the job then runs without waiting for a merge slot, and exits */
+        abstract boolean cancelled();
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    // guarded by lock
+    private final List<Job> queue = new ArrayList<>();
+    private int runningMerges;
+    private final int maxMerges;
+
+    /**
+     * starts the task on a worker. The caller must call run() on the returned task before waiting for its result, which
+     * runs the task on the caller if no worker has started it, so tasks that wait for nested tasks cannot exhaust the
+     * workers.
+     */
+    static <T> FutureTask<T> fork(Callable<T> task) {
+        var future = new FutureTask<>(task);
+        workers.execute(future);
+        return future;
+    }
+
+    BackgroundScheduler(int threads) {
+        this.maxMerges = Math.max(1, threads - 1);
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(this::runJobs, "db background " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    void submit(Job job) {
+        lock.lock();
+        try {
+            queue.add(job);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runJobs() {
+        while (true) {
+            Job job = take();
+            try {
+                job.run();
+            } catch (Throwable ignore) {
+                // jobs record their errors in the database
+            } finally {
+                if (!job.flush) {
+                    lock.lock();
+                    try {
+                        runningMerges--;
+                        available.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+    }
+
+    /** waits for the next job to run */
+    Job take() {
+        lock.lock();
+        try {
+            while (true) {
+                Job job = next();
+                if (job != null) {
+                    queue.remove(job);
+                    if (!job.flush) {
+                        runningMerges++;
+                    }
+                    return job;
+                }
+                available.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** @return the job to run next, or null if no job can run. Must hold the lock. */
+    private Job next() {
+        Job best = null;
+        double bestUrgency = 0;
+        for (Job job : queue) {
+            if (job.flush) {
+                return job;
+            }
+            if (job.cancelled()) {
+                // counted as a merge until it exits, which it does without merging
+                return job;
+            }
+            if (runningMerges >= maxMerges) {
+                continue;
+            }
+            double urgency = job.urgency();
+            if (best == null || urgency > bestUrgency) {
+                best = job;
+                bestUrgency = urgency;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,229 @@
+package com.robaho.jleveldb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * bounded LRU cache of decoded key blocks shared by all disk segments of a database. The cache is split into
+ * shards, each with its own lock and LRU list, to reduce contention between readers.
+ *
+ * Decoding a block costs more than searching it in place, so a block is only admitted after it has been missed
+ * twice within a short window. This keeps a working set larger than the cache from continually decoding and
+ * evicting blocks.
+ */
+final class BlockCache {
+    private static final int SHARDS = 16;
+
+    private final Shard[] shards = new Shard[SHARDS];
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    BlockCache(long capacity) {
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard(Math.max(1, capacity / SHARDS));
+        }
+    }
+
+    private static long cacheKey(long segmentId, long block) {
+        return (segmentId << 32) | block;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private Shard shard(int hash) {
+        return shards[(hash >>> 28) & (SHARDS - 1)];
+    }
+
+    /** @return the cached block or null */
+    KeyBlock get(long segmentId, long block) {
+        long key = cacheKey(segmentId, block);
+        int hash = hash(key);
+        KeyBlock kb = shard(hash).get(key, hash);
+        if (kb == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return kb;
+    }
+
+    /**
+     * returns the cached block without counting a hit or miss, or making it more recently used. This is for probes
+     * that only read the first key of a block.
+     * @return the cached block or null
+     */
+    KeyBlock peek(long segmentId, long block) {
+        long key = cacheKey(segmentId, block);
+        int hash = hash(key);
+        return shard(hash).peek(key, hash);
+    }
+
+    /** @return true if the block was recently missed and should be decoded and added to the cache */
+    boolean admit(long segmentId, long block) {
+        long key = cacheKey(segmentId, block);
+        int hash = hash(key);
+        return shard(hash).admit(key, hash);
+    }
+
+    void put(long segmentId, long block, KeyBlock kb) {
+        long key = cacheKey(segmentId, block);
+        int hash = hash(key);
+        shard(hash).put(key, hash, kb);
+    }
+
+    /** removes all blocks of the segment */
+    void evict(long segmentId) {
+        for (Shard shard : shards) {
+            shard.evict(segmentId);
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private static final class Entry {
+        final long key;
+        final int hash;
+        final KeyBlock block;
+        Entry next; // hash chain
+        Entry before, after; // lru list
+
+        Entry(long key, int hash, KeyBlock block) {
+            this.key = key;
+            this.hash = hash;
+            this.block = block;
+        }
+    }
+
+    /** a hash table keyed by primitive longs so that lookups do not allocate */
+    private static final class Shard {
+        private final long capacity;
+        private long usage;
+        private int count;
+        private Entry[] table = new Entry[256];
+        private final Entry head = new Entry(-1, 0, null); // head.after is least recently used
+        // keys of recently missed blocks, direct mapped by hash and offset by 1 so that 0 is empty
+        private final long[] ghosts;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            head.before = head.after = head;
+            // the window is about the number of blocks the shard can hold, a block missed twice within it is
+            // likely to be used again before it is evicted
+            int size = Integer.highestOneBit((int) Math.min(1 << 20, Math.max(64, capacity / (2 * Constants.keyBlockSize))));
+            ghosts = new long[size];
+        }
+
+        synchronized boolean admit(long key, int hash) {
+            int index = hash & (ghosts.length - 1);
+            if (ghosts[index] == key + 1) {
+                ghosts[index] = 0;
+                return true;
+            }
+            ghosts[index] = key + 1;
+            return false;
+        }
+
+        synchronized KeyBlock get(long key, int hash) {
+            for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+                if (e.key == key) {
+                    unlink(e);
+                    link(e);
+                    return e.block;
+                }
+            }
+            return null;
+        }
+
+        synchronized KeyBlock peek(long key, int hash) {
+            for (Entry e = table[hash & (table.length - 1)]; e != null; e = e.next) {
+                if (e.key == key) {
+                    return e.block;
+                }
+            }
+            return null;
+        }
+
+        synchronized void put(long key, int hash, KeyBlock block) {
+            remove(key, hash);
+            Entry e = new Entry(key, hash, block);
+            int index = hash & (table.length - 1);
+            e.next = table[index];
+            table[index] = e;
+            link(e);
+            usage += block.memory();
+            if (++count > table.length) {
+                resize();
+            }
+            while (usage > capacity && head.after != e) {
+                Entry lru = head.after;
+                remove(lru.key, lru.hash);
+            }
+        }
+
+        synchronized void evict(long segmentId) {
+            for (Entry e = head.after; e != head; ) {
+                Entry next = e.after;
+                if ((e.key >>> 32) == segmentId) {
+                    remove(e.key, e.hash);
+                }
+                e = next;
+            }
+        }
+
+        synchronized long size() {
+            return usage;
+        }
+
+        private void remove(long key, int hash) {
+            int index = hash & (table.length - 1);
+            Entry prev = null;
+            for (Entry e = table[index]; e != null; prev = e, e = e.next) {
+                if (e.key == key) {
+                    if (prev == null) {
+                        table[index] = e.next;
+                    } else {
+                        prev.next = e.next;
+                    }
+                    unlink(e);
+                    usage -= e.block.memory();
+                    count--;
+                    return;
+                }
+            }
+        }
+
+        private void resize() {
+            Entry[] old = table;
+            table = new Entry[old.length * 2];
+            for (Entry e : old) {
+                while (e != null) {
+                    Entry next = e.next;
+                    int index = e.hash & (table.length - 1);
+                    e.next = table[index];
+                    table[index] = e;
+                    e = next;
+                }
+            }
+        }
+
+        private void link(Entry e) {
+            e.before = head.before;
+            e.after = head;
+            head.before.after = e;
+            head.before = e;
+        }
+
+        private void unlink(Entry e) {
+            e.before.after = e.after;
+            e.after.before = e.before;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * LevelDB style bloom filter over the keys of a segment. The serialized form is the filter bits followed
+ * by a single byte holding the number of probes.
+ */
+final class BloomFilter {
+    private final byte[] data;
+    private final long bits;
+    private final int k;
+
+    BloomFilter(byte[] data) {
+        this.data = data;
+        this.bits = (data.length - 1) * 8L;
+        this.k = data[data.length - 1];
+    }
+
+    static BloomFilter load(Path path) throws IOException {
+        byte[] data = Files.readAllBytes(path);
+        if(data.length < 2)
+            throw new IOException("invalid filter file "+path);
+        return new BloomFilter(data);
+    }
+
+    boolean mayContain(byte[] key) {
+        if(k > 30) {
+            // reserved for newer encodings, so treat as a match
+            return true;
+        }
+        int h = hash(key);
+        int delta = (h >>> 17) | (h << 15);
+        for(int j=0;j<k;j++) {
+            long bitpos = (h & 0xFFFFFFFFL) % bits;
+            if((data[(int)(bitpos/8)] & (1 << (bitpos%8))) == 0)
+                return false;
+            h += delta;
+        }
+        return true;
+    }
+
+    /** hash function from leveldb, similar to murmur hash */
+    static int hash(byte[] key) {
+        final int m = 0xc6a4a793;
+        int h = 0xbc9f1d34 ^ (key.length * m);
+        int i = 0;
+        for(;i+4<=key.length;i+=4) {
+            int w = (key[i] & 0xFF) | ((key[i+1] & 0xFF) << 8) | ((key[i+2] & 0xFF) << 16) | ((key[i+3] & 0xFF) << 24);
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+        int remaining = key.length - i;
+        if(remaining > 0) {
+            if(remaining == 3) {
+                h += (key[i+2] & 0xFF) << 16;
+            }
+            if(remaining >= 2) {
+                h += (key[i+1] & 0xFF) << 8;
+            }
+            h += (key[i] & 0xFF);
+            h *= m;
+            h ^= (h >>> 24);
+        }
+        return h;
+    }
+
+    /** accumulates key hashes while a segment is written, so the keys themselves do not need to be retained */
+    static final class Builder {
+        // the largest array that can be allocated
+        private static final int maxArraySize = Integer.MAX_VALUE - 8;
+
+        private final int bitsPerKey;
+        private int[] hashes = new int[1024];
+        private int count;
+        // set if there are more keys than hashes can hold, the filter then matches all keys
+        private boolean overflow;
+
+        Builder(int bitsPerKey) {
+            this.bitsPerKey = bitsPerKey;
+        }
+
+        void add(byte[] key) {
+            if(overflow) {
+                return;
+            }
+            if(count == hashes.length) {
+                if(count == maxArraySize) {
+                    overflow = true;
+                    hashes = null;
+                    return;
+                }
+                int[] tmp = new int[(int) Math.min(maxArraySize, hashes.length * 2L)];
+                System.arraycopy(hashes,0,tmp,0,count);
+                hashes = tmp;
+            }
+            hashes[count++] = hash(key);
+        }
+
+        byte[] build() {
+            // 0.69 =~ ln(2), which minimizes the false positive rate
+            int k = (int) (bitsPerKey * 0.69);
+            k = Math.max(1,Math.min(30,k));
+
+            if(overflow) {
+                // a probe count reserved for newer encodings, which matches all keys
+                return new byte[]{0, 31};
+            }
+
+            long bits = Math.max(64L,(long)count * bitsPerKey);
+            // the bits are capped to the largest array, which increases the false positive rate
+            int bytes = (int) Math.min(maxArraySize - 1, (bits + 7) / 8);
+            bits = bytes * 8L;
+
+            byte[] data = new byte[bytes+1];
+            data[bytes] = (byte) k;
+            for(int i=0;i<count;i++) {
+                int h = hashes[i];
+                int delta = (h >>> 17) | (h << 15);
+                for(int j=0;j<k;j++) {
+                    long bitpos = (h & 0xFFFFFFFFL) % bits;
+                    data[(int)(bitpos/8)] |= (1 << (bitpos%8));
+                    h += delta;
+                }
+            }
+            return data;
+        }
+    }
+}
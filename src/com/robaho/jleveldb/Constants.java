@@ -8,5 +8,9 @@ class Constants {
     static final int maxPrefixLen = 0xFF ^ 0x80;
     static final int maxCompressedLen = 0xFF;
     static final int keyIndexInterval = 16;
+    // every restartInterval key in a block is stored without prefix compression
+    static final int restartInterval = 16;
+    // stored in the last byte of a key block, blocks without restarts have a 0
+    static final int blockFormatRestarts = 1;
     static final int maxSegments = 8;
 }
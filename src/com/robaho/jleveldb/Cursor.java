@@ -0,0 +1,22 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+
+/**
+ * a position in the ordered keys of a snapshot that can be moved in either direction. A new cursor is not valid
+ * until it is positioned with one of the seek methods.
+ */
+public interface Cursor {
+    /** positions the cursor at the first key that is greater than or equal to key */
+    void seek(byte[] key) throws IOException;
+    void seekToFirst() throws IOException;
+    void seekToLast() throws IOException;
+    /** @return true if the cursor is positioned at a key, false if it moved before the first or after the last key */
+    boolean valid();
+    /** moves to the next key, the cursor must be valid */
+    void next() throws IOException;
+    /** moves to the previous key, the cursor must be valid */
+    void prev() throws IOException;
+    byte[] key();
+    byte[] value() throws IOException;
+}
@@ -5,12 +5,18 @@ import com.robaho.jleveldb.exceptions.*;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 class DatabaseState {
@@ -50,6 +56,8 @@ interface Deleter {
 public class Database {
     private static final int dbMemorySegment = 1024 * 1024;
     private static final int dbMaxSegments = 8;
+    // limits the bytes written by a leader on behalf of other writers, so that a small write is not delayed too long
+    private static final int maxGroupSize = 1024 * 1024;
 
     static final Object global_lock = new Object();
     final ReentrantLock db_lock = new ReentrantLock(false);
@@ -61,17 +69,43 @@ public class Database {
             return t;
         }
     });
+    // writes the batches of writeAsync(), each database uses at most one thread at a time. Separate from the
+    // BackgroundScheduler, since a write may stall waiting for the flushes and merges it runs.
+    static final ExecutorService asyncWriteExecutor = Executors.newFixedThreadPool(Math.max(2,Runtime.getRuntime().availableProcessors()), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r,"db async write");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+    // runs the reads of getAsync() and multiGetAsync(). Uses virtual threads if the runtime supports them, so that a
+    // read blocked on a page fault of a mapped segment does not hold a platform thread.
+    static final Executor readExecutor = readExecutor();
 
     volatile boolean open;
     final AtomicBoolean inMerge = new AtomicBoolean(false);
+    final AtomicBoolean inFlush = new AtomicBoolean(false);
+    // true while a background merge is queued or running, see Merger.scheduleMerge
+    final AtomicBoolean mergeScheduled = new AtomicBoolean(false);
     Deleter deleter;
     String path;
     final AtomicLong nextSegID = new AtomicLong();
     LockFile lockFile;
     final WaitGroup wg = new WaitGroup();
     Options options;
+    // non-null if the database uses leveled compaction
+    Manifest manifest;
+    WriteController writeController;
     Exception error; // if non-null and async error has occurred
     volatile DatabaseState state;
+    // guarded by db_lock
+    final ArrayDeque<Writer> writers = new ArrayDeque<>();
+    // snapshots that have returned value views, these keep the segments they reference from being removed
+    final Set<Snapshot> pinned = ConcurrentHashMap.newKeySet();
+    // batches submitted by writeAsync() waiting to be written, see writeAsyncBatches()
+    final ConcurrentLinkedQueue<AsyncWrite> asyncWrites = new ConcurrentLinkedQueue<>();
+    final AtomicBoolean asyncWriting = new AtomicBoolean(false);
 
     public static Database open(String path,Options options) throws DatabaseException {
         Options copy = options.clone();
@@ -117,7 +151,12 @@ public class Database {
         db.lockFile = lockFile;
         db.open = true;
         db.options = options;
+        if(options.blockCacheSize > 0) {
+            options.blockCache = new BlockCache(options.blockCacheSize);
+        }
+        options.compactionLimiter = new RateLimiter(options.compactionBytesPerSecond);
         db.deleter = new DbDeleter(path);
+        db.writeController = new WriteController(db);
 
         try {
             db.deleter.deleteScheduled();
@@ -127,7 +166,16 @@ public class Database {
 
         List<Segment> segments = null;
         try {
+            boolean leveled = Manifest.exists(path);
             segments = DiskSegment.loadDiskSegments(path,db.options);
+            if(leveled || options.leveledCompaction) {
+                options.leveledCompaction = true;
+                db.manifest = new Manifest(path);
+                if(!leveled) {
+                    // the existing disk segments become level 0
+                    db.manifest.write(segments);
+                }
+            }
         } catch (IOException e) {
             throw new DatabaseCorruptedException(e);
         }
@@ -151,19 +199,22 @@ public class Database {
         if (options.maxSegments < dbMaxSegments) {
             options.maxSegments = dbMaxSegments;
         }
+        WriteController.setDefaults(options);
 
-        if (!options.disableAutoMerge) {
-            db.wg.add(1);
-            executor.submit(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        Merger.backgroundMerge(db);
-                    } finally {
-                        db.wg.done();
-                    }
-                }
-            });
+        // log segments recovered from a previous run are written to disk in the background
+        db.lock();
+        try {
+            Flusher.maybeFlush(db);
+        } finally {
+            db.unlock();
+        }
+
+        // merges are scheduled when segments are flushed, or if the database already needs one
+        Merger.scheduleMerge(db);
+        Merger.countRemovals(db);
+
+        if(options.writeBufferManager!=null) {
+            options.writeBufferManager.register(db);
         }
 
         return db;
@@ -186,7 +237,9 @@ public class Database {
             if(file.getName().equals(f.getName()))
                 continue;
 
-            if(!file.getName().matches("(log|keys|data)\\..*"))
+            if(file.getName().startsWith(Manifest.FILENAME))
+                continue;
+            if(!file.getName().matches("(log|keys|data|filter)\\..*"))
                 throw new DatabaseInvalid();
         }
     }
@@ -216,6 +269,7 @@ public class Database {
     public void closeWithMerge(int numberOfSegments) throws DatabaseException, IOException {
         synchronized(global_lock) {
             lock();
+            Writer closer = null;
             try {
                 if (!open) {
                     throw new DatabaseException("already closed");
@@ -223,38 +277,24 @@ public class Database {
 
                 open = false;
 
+                // wait for the queued writes to complete, later writes will fail as the database is closed
+                closer = enterExclusive();
+
                 unlock();
 
                 wg.waitEmpty();
 
-                // at this point the background merger should not be running
+                // at this point the background merger and flusher should not be running
 
                 state=new DatabaseState(Segment.copyAndAppend(state.segments,state.memory),null,null);
 
+                Flusher.flushSegments(this);
+
                 if (numberOfSegments > 0) {
                     Merger.mergeSegments0(this, numberOfSegments,false);
                 }
 
                 lock();
-                for(Segment s : state.segments) {
-                    if(s instanceof MemorySegment) {
-                        MemorySegment ms = (MemorySegment) s;
-                        wg.add(1);
-                        executor.submit(new Runnable() {
-                            @Override
-                            public void run() {
-                                try {
-                                    DiskIO.writeSegmentToDisk(Database.this.path, ms);
-                                } catch(Exception e) {
-                                    error = e;
-                                }
-                                wg.done();
-                            }
-                        });
-                    }
-                }
-                wg.waitEmpty();
-
                 for (Segment s : state.segments) {
                     s.close();
                 }
@@ -267,6 +307,13 @@ public class Database {
 
             } finally {
                 state = new DatabaseState(Collections.EMPTY_LIST,null,null);
+                pinned.clear();
+                if(options.writeBufferManager!=null) {
+                    options.writeBufferManager.unregister(this);
+                }
+                if(closer!=null) {
+                    exitExclusive(closer);
+                }
                 unlock();
                 lockFile.unlock();
             }
@@ -291,97 +338,482 @@ public class Database {
             return null;
         return value;
     }
+    /**
+     * copies the value into dst at its current position. This does not allocate, so it is suitable for high rate lookups.
+     * @return the length of the value, or -1 if the key does not exist
+     * @throws java.nio.BufferOverflowException if the value is larger than dst.remaining(), dst is unchanged
+     */
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        if(key.length==0 || key.length>1024)
+            throw new IOException("invalid key length");
+        int len = getState().multi.get(key,dst);
+        return len==0 ? -1 : len;
+    }
     public void put(byte[] key,byte[] value) throws IOException {
-        lock();
-        try {
-            if(!open)
-                throw new DatabaseClosedException();
-            if(key.length==0 || key.length>1024)
-                throw new IOException("invalid key length");
-
-            maybeSwapMemory();
-            state.memory.put(key,value);
-        } finally {
-            unlock();
-            maybeMerge();
-        }
+        if(key.length==0 || key.length>1024)
+            throw new IOException("invalid key length");
+        WriteBatch batch = new WriteBatch(WriteBatch.HEADER_SIZE+8+key.length+value.length);
+        batch.put(key,value);
+        write(batch);
     }
+    /** @return the value that was removed, no other write of the key occurs between reading it and the removal */
     public byte[] remove(byte[] key) throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        if(key.length==0 || key.length>1024)
+            throw new IOException("invalid key length");
+        writeController.maybeDelay();
         lock();
+        Writer w = null;
         try {
             if(!open)
                 throw new DatabaseClosedException();
-            if(key.length==0 || key.length>1024)
-                throw new IOException("invalid key length");
+            // the read and the removal are excluded from the write groups
+            w = enterExclusive();
             byte[] value = get(key);
             if(value==null)
                 return null;
+            WriteBatch batch = new WriteBatch(WriteBatch.HEADER_SIZE+8+key.length);
+            batch.remove(key);
             maybeSwapMemory();
-            state.memory.remove(key);
+            MemorySegment memory = state.memory;
+            unlock();
+            try {
+                memory.writeLog(List.of(batch));
+                memory.apply(batch);
+            } finally {
+                lock();
+            }
             return value;
         } finally {
+            if(w!=null) {
+                exitExclusive(w);
+            }
             unlock();
+            maybeMerge();
+        }
+    }
+
+    /**
+     * reads the values of the keys from the same state of the database, so a write that changes several of the keys is
+     * either seen for all or none of them.
+     * @return the values in the order of the keys, with null for a key that does not exist
+     */
+    public List<byte[]> multiGet(List<byte[]> keys) throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        for(byte[] key : keys) {
+            if(key.length==0 || key.length>1024)
+                throw new IOException("invalid key length");
+        }
+        Segment multi = getState().multi;
+        List<byte[]> values = new ArrayList<>(keys.size());
+        for(byte[] key : keys) {
+            byte[] value = multi.get(key);
+            values.add(value!=null && value.length==0 ? null : value);
+        }
+        return values;
+    }
+
+    /** reads the value on a background thread, see get() */
+    public CompletableFuture<byte[]> getAsync(byte[] key) {
+        return readAsync(() -> get(key));
+    }
+
+    /** reads the values on a background thread, see multiGet() */
+    public CompletableFuture<List<byte[]>> multiGetAsync(List<byte[]> keys) {
+        return readAsync(() -> multiGet(keys));
+    }
+
+    public CompletableFuture<Void> putAsync(byte[] key,byte[] value) {
+        WriteBatch batch = new WriteBatch(WriteBatch.HEADER_SIZE+8+key.length+value.length);
+        batch.put(key,value);
+        return writeAsync(batch);
+    }
+
+    /**
+     * writes the batch on a background thread. The future completes once the batch is logged, with the durability of
+     * write() given the flush and sync options, and is applied to the database. Batches submitted while an earlier
+     * write is in progress are written together with a single log write. Batches are written in the order they are
+     * submitted. The batch must not be modified until the future completes.
+     */
+    public CompletableFuture<Void> writeAsync(WriteBatch batch) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if(!open) {
+            future.completeExceptionally(new DatabaseClosedException());
+            return future;
+        }
+        for(var r = batch.reader(); r.next(); ) {
+            if(r.keyLength==0 || r.keyLength>1024) {
+                future.completeExceptionally(new IOException("invalid key length"));
+                return future;
+            }
+        }
+        asyncWrites.add(new AsyncWrite(batch,future));
+        scheduleAsyncWrites();
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> readAsync(Callable<T> read) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            readExecutor.execute(() -> {
+                try {
+                    future.complete(read.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private static Executor readExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return executor;
+        }
+    }
+
+    static final class AsyncWrite {
+        final WriteBatch batch;
+        final CompletableFuture<Void> future;
+        AsyncWrite(WriteBatch batch,CompletableFuture<Void> future) {
+            this.batch = batch;
+            this.future = future;
+        }
+    }
+
+    private void scheduleAsyncWrites() {
+        if(asyncWriting.compareAndSet(false,true)) {
+            asyncWriteExecutor.execute(this::writeAsyncBatches);
+        }
+    }
+
+    /**
+     * writes the queued async batches, combining those queued together into a single batch, up to a size limit. A
+     * single thread writes the queue at a time, so the batches are written in order. A batch queued alone is written
+     * without copying it.
+     */
+    private void writeAsyncBatches() {
+        try {
+            AsyncWrite first;
+            while((first=asyncWrites.poll())!=null) {
+                List<AsyncWrite> group = new ArrayList<>();
+                group.add(first);
+                WriteBatch batch = first.batch;
+                int size = first.batch.size();
+                AsyncWrite aw;
+                while(size<maxGroupSize && (aw=asyncWrites.poll())!=null) {
+                    if(group.size()==1) {
+                        batch = new WriteBatch(size+aw.batch.size());
+                        batch.append(first.batch);
+                    }
+                    group.add(aw);
+                    batch.append(aw.batch);
+                    size += aw.batch.size();
+                }
+                try {
+                    write(batch);
+                    for(AsyncWrite g : group) {
+                        g.future.complete(null);
+                    }
+                } catch (Throwable e) {
+                    for(AsyncWrite g : group) {
+                        g.future.completeExceptionally(e);
+                    }
+                }
+            }
+        } finally {
+            asyncWriting.set(false);
+        }
+        // a batch queued after the loop exited, but before the flag was cleared, has not been scheduled
+        if(!asyncWrites.isEmpty()) {
+            scheduleAsyncWrites();
+        }
+    }
+
+    /**
+     * a write waiting in the writer queue. The writer at the head of the queue is the leader, it writes its own batch
+     * and those of the writers queued behind it with a single log write. The batches are then applied to the memory
+     * segment by their own writers concurrently, and the leader completes the group once all are applied.
+     */
+    static final class Writer {
+        // null for an operation that requires exclusive access to the memory segment
+        final WriteBatch batch;
+        final Condition cv;
+        boolean done;
+        IOException error;
+        // set by the leader once the batch is logged, the writer then applies its batch to this memory segment
+        MemorySegment memory;
+        Writer leader;
+        // for a leader, the number of writers in its group that have not yet applied their batch
+        int pending;
+        Writer(WriteBatch batch,Condition cv) {
+            this.batch = batch;
+            this.cv = cv;
         }
     }
 
     public void write(WriteBatch batch) throws IOException {
+        writeController.maybeDelay();
+        Writer w = new Writer(batch,db_lock.newCondition());
         lock();
         try {
+            writers.addLast(w);
+            while(!w.done && writers.peekFirst()!=w) {
+                if(w.memory!=null) {
+                    apply(w);
+                    return;
+                }
+                w.cv.awaitUninterruptibly();
+            }
+            if(w.done) {
+                if(w.error!=null)
+                    throw w.error;
+                return;
+            }
+
             if(!open) {
+                writers.removeFirst();
+                signalLeader();
                 throw new DatabaseClosedException();
             }
-            maybeSwapMemory();
-            state.memory.write(batch);
+
+            MemorySegment memory;
+            List<Writer> group;
+            try {
+                maybeSwapMemory();
+                memory = state.memory;
+                group = buildGroup();
+            } catch (Throwable e) {
+                // the next writer becomes the leader
+                writers.removeFirst();
+                signalLeader();
+                throw e;
+            }
+            List<WriteBatch> batches = new ArrayList<>(group.size());
+            for(Writer g : group) {
+                batches.add(g.batch);
+            }
+
+            // any failure must complete the group, otherwise the writers queued behind it wait forever
+            Throwable error = null;
+            unlock();
+            try {
+                memory.writeLog(batches);
+                if(group.size()>1 && !sharesKeys(group)) {
+                    lock();
+                    try {
+                        w.pending = group.size()-1;
+                        for(Writer g : group.subList(1,group.size())) {
+                            g.leader = w;
+                            g.memory = memory;
+                            g.cv.signal();
+                        }
+                    } finally {
+                        unlock();
+                    }
+                    memory.apply(w.batch);
+                } else {
+                    // the batches must be applied in log order
+                    for(WriteBatch b : batches) {
+                        memory.apply(b);
+                    }
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                lock();
+            }
+            while(w.pending>0) {
+                w.cv.awaitUninterruptibly();
+            }
+
+            for(Writer g : group) {
+                writers.removeFirst();
+                if(g!=w) {
+                    g.error = error==null || error instanceof IOException ? (IOException)error : new IOException(error);
+                    g.done = true;
+                    g.cv.signal();
+                }
+            }
+            signalLeader();
+            if(error instanceof IOException)
+                throw (IOException)error;
+            if(error instanceof RuntimeException)
+                throw (RuntimeException)error;
+            if(error instanceof Error)
+                throw (Error)error;
         } finally {
             unlock();
             maybeMerge();
         }
     }
 
-    /** creates a read-only snapshot of the database at a moment in time. */
+    /** applies the batch of a writer in a group to the memory segment, and notifies the leader. Must hold the database lock. */
+    private void apply(Writer w) {
+        unlock();
+        try {
+            w.memory.apply(w.batch);
+        } finally {
+            lock();
+            if(--w.leader.pending==0) {
+                w.leader.cv.signal();
+            }
+        }
+    }
+
+    /** @return the writers at the head of the queue whose batches are written together, up to a size limit */
+    private List<Writer> buildGroup() {
+        List<Writer> group = new ArrayList<>();
+        int size = 0;
+        for(Writer w : writers) {
+            if(w.batch==null)
+                break;
+            int batchSize = w.batch.size();
+            // the leader's batch is always written
+            if(!group.isEmpty() && size+batchSize > maxGroupSize)
+                break;
+            group.add(w);
+            size += batchSize;
+        }
+        return group;
+    }
+
+    /** @return true if different writers in the group write the same key, so the batches must be applied in order */
+    private static boolean sharesKeys(List<Writer> group) {
+        var writerByKey = new HashMap<ByteBuffer,Writer>();
+        for(Writer w : group) {
+            for(var r = w.batch.reader(); r.next(); ) {
+                Writer prev = writerByKey.put(ByteBuffer.wrap(r.data(),r.keyOffset,r.keyLength),w);
+                if(prev!=null && prev!=w)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void signalLeader() {
+        Writer next = writers.peekFirst();
+        if(next!=null) {
+            next.cv.signal();
+        }
+    }
+
+    /** waits until the writes queued ahead are complete, and prevents later writes until exitExclusive(). Must hold the database lock. */
+    Writer enterExclusive() {
+        Writer w = new Writer(null,db_lock.newCondition());
+        writers.addLast(w);
+        while(writers.peekFirst()!=w) {
+            w.cv.awaitUninterruptibly();
+        }
+        return w;
+    }
+
+    void exitExclusive(Writer w) {
+        writers.remove(w);
+        signalLeader();
+    }
+
+    /**
+     * adds the entries as a new disk segment, without writing them to the log or memory segment. The entries must be
+     * in increasing key order, and replace the values of existing keys. An entry with an empty value removes the key.
+     * See Ingest.
+     */
+    public void ingest(Iterator<KeyValue> sorted) throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        Ingest.ingest(this,sorted);
+    }
+
+    /**
+     * moves the segments written by SegmentWriter into the database, and adds them as the newest disk segments. The
+     * segments must have disjoint key ranges. If a segment cannot be added, the files are moved back.
+     * @param keyFiles the keys file of each segment, as returned by SegmentWriter.finish()
+     */
+    public void ingestFiles(List<String> keyFiles) throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        Ingest.ingestFiles(this,keyFiles);
+    }
+
+    /**
+     * creates a read-only snapshot of the database at a moment in time. The snapshot should be closed if
+     * Snapshot.getView() is used.
+     */
     public Snapshot snapshot() throws IOException {
         lock();
+        Writer w = null;
         try {
             if (!open) {
                 throw new DatabaseClosedException();
             }
+            // the memory segment can only be rotated when no write is in progress
+            w = enterExclusive();
             if(state.memory.size()==0) {
                 // memory is unmodified so only the non-memory segments are needed
                 var segments = new ArrayList(state.segments);
                 return new Snapshot(this,new MultiSegment(segments));
             } else {
-                var segments = Segment.copyAndAppend(state.segments,state.memory);
-                var memory = new MemorySegment(path,nextSegmentID(),options);
-                var multi = new MultiSegment(Segment.copyAndAppend(segments,memory));
-                state = new DatabaseState(segments, memory, multi);
-
-                return new Snapshot(this,new MultiSegment(segments));
+                swapMemory();
+                return new Snapshot(this,new MultiSegment(state.segments));
             }
         } finally {
+            if(w!=null) {
+                exitExclusive(w);
+            }
             unlock();
         }
     }
     void maybeSwapMemory() {
         if(state.memory.size() > options.maxMemoryBytes) {
-            var segments = Segment.copyAndAppend(state.segments,state.memory);
-            var memory = new MemorySegment(path,nextSegmentID(),options);
-            var multi = new MultiSegment(Segment.copyAndAppend(segments,memory));
-            state = new DatabaseState(segments, memory, multi);
+            swapMemory();
+        }
+    }
+    /**
+     * rotates the memory segment if it is not empty, so that it is written to disk before it reaches maxMemoryBytes.
+     * Called by the WriteBufferManager to reduce the memory used by the database.
+     */
+    void rotateMemory() {
+        lock();
+        Writer w = null;
+        try {
+            if(!open) {
+                return;
+            }
+            w = enterExclusive();
+            if(state.memory.size()>0) {
+                swapMemory();
+            }
+        } finally {
+            if(w!=null) {
+                exitExclusive(w);
+            }
+            unlock();
         }
     }
+    /** replaces the memory segment with a new one, and writes it to disk in the background. Must hold the database lock, with no write in progress. */
+    private void swapMemory() {
+        var segments = Segment.copyAndAppend(state.segments,state.memory);
+        var memory = new MemorySegment(path,nextSegmentID(),options);
+        var multi = new MultiSegment(Segment.copyAndAppend(segments,memory));
+        state = new DatabaseState(segments, memory, multi);
+        Flusher.maybeFlush(this);
+    }
     void maybeMerge() throws IOException {
         if(options.disableAutoMerge) {
             return;
         }
         var state0 = state;
-        if(state0.segments.size() > 2*options.maxSegments) {
-            Merger.wakeupMerger();
-//            Merger.mergeSegments0(this,options.maxSegments);
-//            state0 = state;
-//            if(state0.segments.size() > 2*options.maxSegments) {
-//                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
-//            }
-//            // throttle writing to allow background merger to run
+        if(manifest!=null ? LeveledMerger.needsMerge(state0.segments,options) : Merger.segmentCount(state0.segments) > options.maxSegments) {
+            // writes are throttled by the WriteController if the merger falls behind
+            Merger.scheduleMerge(this);
         }
     }
     public LookupIterator lookup(byte[] lower,byte[] upper) throws IOException {
@@ -390,6 +822,15 @@ public class Database {
         return snapshot().lookup(lower,upper);
     }
 
+    /**
+     * creates a cursor on a snapshot of the database, see Snapshot.cursor()
+     */
+    public Cursor cursor() throws IOException {
+        if(!open)
+            throw new DatabaseClosedException();
+        return snapshot().cursor();
+    }
+
     void lock() {
         db_lock.lock();
     }
@@ -397,11 +838,25 @@ public class Database {
         db_lock.unlock();
     }
 
+    /** changes the maximum bytes per second written by merges, see Options.compactionBytesPerSecond */
+    public void setCompactionRate(long bytesPerSecond) {
+        options.compactionBytesPerSecond = bytesPerSecond;
+        options.compactionLimiter.setRate(bytesPerSecond);
+    }
+
     public Statistics stats() {
         lock();
         try {
             Statistics stats = new Statistics();
             stats.numberOfSegments = state.segments.size();
+            stats.pinnedSnapshots = pinned.size();
+            stats.writeStall = writeController.stall();
+            stats.stalledWrites = writeController.stalledWrites.sum();
+            stats.writeStallNanos = writeController.stallNanos.sum();
+            if(options.blockCache!=null) {
+                stats.blockCacheHits = options.blockCache.hits.sum();
+                stats.blockCacheMisses = options.blockCache.misses.sum();
+            }
             return stats;
         } finally {
             unlock();
@@ -436,6 +891,87 @@ public class Database {
     LookupIterator newDatabaseLookup(LookupIterator itr) {
         return new DatabaseLookup(itr);
     }
+
+    /** skips removed keys */
+    class DatabaseCursor implements Cursor {
+        private final Cursor cursor;
+        // the value at the current key, read to check whether the key is removed
+        private byte[] value;
+        public DatabaseCursor(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        private void checkOpen() throws DatabaseClosedException {
+            if (!open) {
+                throw new DatabaseClosedException();
+            }
+        }
+        private void skipRemovedForward() throws IOException {
+            while(cursor.valid() && (value=cursor.value()).length==0) {
+                cursor.next();
+            }
+        }
+        private void skipRemovedBackward() throws IOException {
+            while(cursor.valid() && (value=cursor.value()).length==0) {
+                cursor.prev();
+            }
+        }
+
+        @Override
+        public void seek(byte[] key) throws IOException {
+            checkOpen();
+            cursor.seek(key);
+            skipRemovedForward();
+        }
+
+        @Override
+        public void seekToFirst() throws IOException {
+            checkOpen();
+            cursor.seekToFirst();
+            skipRemovedForward();
+        }
+
+        @Override
+        public void seekToLast() throws IOException {
+            checkOpen();
+            cursor.seekToLast();
+            skipRemovedBackward();
+        }
+
+        @Override
+        public boolean valid() {
+            return cursor.valid();
+        }
+
+        @Override
+        public void next() throws IOException {
+            checkOpen();
+            cursor.next();
+            skipRemovedForward();
+        }
+
+        @Override
+        public void prev() throws IOException {
+            checkOpen();
+            cursor.prev();
+            skipRemovedBackward();
+        }
+
+        @Override
+        public byte[] key() {
+            return cursor.key();
+        }
+
+        @Override
+        public byte[] value() throws IOException {
+            checkOpen();
+            return value;
+        }
+    }
+
+    Cursor newDatabaseCursor(Cursor cursor) {
+        return new DatabaseCursor(cursor);
+    }
 }
 
 
@@ -5,12 +5,22 @@ import java.util.ArrayList;
 import java.util.List;
 
 class DiskIO {
+    // the bytes written between rate limiter requests
+    private static final int rateLimitChunk = 64 * 1024;
+
     // called to write a memory segment to disk. If the segment is empty, null is returned.
     static DiskSegment writeSegmentToDisk(String dbPath,MemorySegment seg) throws IOException {
+        DiskSegment ds = writeSegmentToDisk(dbPath,seg,seg.options);
+        seg.removeSegment();
+        return ds;
+    }
+
+    // called to write a memory or log segment to disk. The caller removes the segment once the disk segment
+    // replaces it in the database. If the segment is empty, null is returned.
+    static DiskSegment writeSegmentToDisk(String dbPath,Segment seg,Options options) throws IOException {
         var itr = seg.lookup(null,null);
 
         if (itr.peekKey()==null) {
-            seg.removeSegment();
             return null;
         }
 
@@ -20,66 +30,120 @@ class DiskIO {
         var keyFilename = String.format("%s/keys.%d.%d",dbPath,lowerId,upperId);
         var dataFilename = String.format("%s/data.%d.%d",dbPath,lowerId,upperId);
 
-        DiskSegment ds = writeAndLoadSegment(keyFilename, dataFilename, itr, false);
-        seg.removeSegment();
-        return ds;
+        return writeAndLoadSegment(keyFilename, dataFilename, itr, false, options);
     }
 
     static DiskSegment writeAndLoadSegment(String keyFilename, String dataFilename,LookupIterator itr,boolean removeDeleted) throws IOException {
+        return writeAndLoadSegment(keyFilename,dataFilename,itr,removeDeleted,new Options());
+    }
+
+    static DiskSegment writeAndLoadSegment(String keyFilename, String dataFilename,LookupIterator itr,boolean removeDeleted,Options options) throws IOException {
+        return writeAndLoadSegment(keyFilename,dataFilename,itr,removeDeleted,options,null);
+    }
+
+    // limiter is null if the write is not rate limited, merges use options.compactionLimiter but flushes are not limited
+    static DiskSegment writeAndLoadSegment(String keyFilename, String dataFilename,LookupIterator itr,boolean removeDeleted,Options options,RateLimiter limiter) throws IOException {
+        var filterFilename = DiskSegment.filterFilename(keyFilename);
+
         var keyFileTmp = new File(keyFilename + ".tmp");
         var dataFileTmp = new File(dataFilename + ".tmp");
+        var filterFileTmp = new File(filterFilename + ".tmp");
 
-        List<byte[]> keyIndex = null;
-        try {
-            keyIndex = writeSegmentFiles(keyFileTmp, dataFileTmp, itr, removeDeleted);
+        List<byte[]> keyIndex;
+        long entries, removals;
+        try (var w = new SegmentFileWriter(keyFileTmp, dataFileTmp, filterFileTmp, options.bloomFilterBitsPerKey, limiter)) {
+            keyIndex = writeSegmentFiles(w, itr, removeDeleted);
+            entries = w.entries;
+            removals = w.removals;
         } catch (IOException e) {
             keyFileTmp.delete();
             dataFileTmp.delete();
+            filterFileTmp.delete();
             throw e;
         }
 
+        // the filter is renamed first, so that a keys file is never present without its filter
+        filterFileTmp.renameTo(new File(filterFilename));
         keyFileTmp.renameTo(new File(keyFilename));
         dataFileTmp.renameTo(new File(dataFilename));
 
-        return new DiskSegment(keyFilename, dataFilename, keyIndex);
+        var ds = new DiskSegment(keyFilename, dataFilename, keyIndex, options);
+        ds.setCounts(entries, removals);
+        return ds;
     }
 
-    static List<byte[]> writeSegmentFiles(File keyFile, File dataFile,LookupIterator itr,boolean removeDeleted) throws IOException {
-        var keyW = new LittleEndianDataOutputStream(new BufferedOS(new FileOutputStream(keyFile)));
-        var dataW = new LittleEndianDataOutputStream(new BufferedOS(new FileOutputStream(dataFile)));
-
-        long dataOffset=0;
-        int keyBlockLen=0;
-        int keyCount=0;
-        int block=0;
-
-        byte[] zeros = new byte[Constants.keyBlockSize];
-        byte[] prevKey = null;
-
-        List<byte[]> keyIndex = new ArrayList<>();
+    static List<byte[]> writeSegmentFiles(File keyFile, File dataFile, File filterFile, LookupIterator itr, boolean removeDeleted, int bitsPerKey, RateLimiter limiter) throws IOException {
+        try (var w = new SegmentFileWriter(keyFile, dataFile, filterFile, bitsPerKey, limiter)) {
+            return writeSegmentFiles(w, itr, removeDeleted);
+        }
+    }
 
+    private static List<byte[]> writeSegmentFiles(SegmentFileWriter w, LookupIterator itr, boolean removeDeleted) throws IOException {
         while (true) {
             KeyValue kv = itr.next();
             if(kv==null)
                 break;
-
-            byte[] value = kv.value;
-            byte[] key = kv.key;
-
             if(removeDeleted && kv.value.length==0) {
                 continue;
             }
+            w.add(kv.key, kv.value);
+        }
+        return w.finish();
+    }
+
+    /** writes the key, data and filter files of a segment from keys added in order */
+    static class SegmentFileWriter implements Closeable {
+        private final File filterFile;
+        private final LittleEndianDataOutputStream keyW;
+        private final LittleEndianDataOutputStream dataW;
+        private final BloomFilter.Builder filter;
+        private final RateLimiter limiter;
+
+        private long dataOffset=0;
+        private int keyBlockLen=0;
+        private int block=0;
+
+        private final byte[] zeros = new byte[Constants.keyBlockSize];
+        private byte[] prevKey = null;
 
-            keyCount++;
+        // offsets within the current block of the uncompressed 'restart' keys
+        private final int[] restarts = new int[Constants.keyBlockSize / 15 + 1];
+        private int restartCount = 0;
+        private int blockEntries = 0;
+
+        private final List<byte[]> keyIndex = new ArrayList<>();
+        // the keys written, and those written as removals
+        long entries = 0;
+        long removals = 0;
+        // bytes written since the last rate limiter request
+        private long unlimited = 0;
+
+        SegmentFileWriter(File keyFile, File dataFile, File filterFile, int bitsPerKey, RateLimiter limiter) throws IOException {
+            this.filterFile = filterFile;
+            this.keyW = new LittleEndianDataOutputStream(new BufferedOS(new FileOutputStream(keyFile)));
+            this.dataW = new LittleEndianDataOutputStream(new BufferedOS(new FileOutputStream(dataFile)));
+            this.filter = bitsPerKey > 0 ? new BloomFilter.Builder(bitsPerKey) : null;
+            this.limiter = limiter;
+        }
+
+        void add(byte[] key, byte[] value) throws IOException {
+            if(filter!=null) {
+                filter.add(key);
+            }
+
+            entries++;
+            if(value.length==0) {
+                removals++;
+            }
 
             dataW.write(value);
-            if (keyBlockLen + 2 + key.length + 8 + 4 >= Constants.keyBlockSize - 2) {
-                // need to leave room for 'end of block marker'
+            if (keyBlockLen + 2 + key.length + 8 + 4 + 2 + restartTrailerSize(restartCount + 1) > Constants.keyBlockSize) {
+                // need to leave room for 'end of block marker' and the restart trailer
                 // key won't fit in block so move to next
-                keyW.writeShort(Constants.endOfBlock);
-                keyBlockLen += 2;
-                keyW.write(zeros, 0, Constants.keyBlockSize - keyBlockLen);
+                finishBlock(keyW, keyBlockLen, restarts, restartCount, zeros);
                 keyBlockLen = 0;
+                restartCount = 0;
+                blockEntries = 0;
                 prevKey = null;
             }
 
@@ -92,6 +156,11 @@ class DiskIO {
 
             int dataLen = value.length;
 
+            if (blockEntries++ % Constants.restartInterval == 0) {
+                restarts[restartCount++] = keyBlockLen;
+                prevKey = null;
+            }
+
             var dk = encodeKey(key, prevKey);
             prevKey = key.clone();
             keyW.writeShort(dk.keylen);
@@ -100,23 +169,63 @@ class DiskIO {
             keyW.writeInt(dataLen);
 
             keyBlockLen += 2 + dk.compressedKey.length + 8 + 4;
-            if (value != null) {
-                dataOffset += dataLen;
+            dataOffset += dataLen;
+
+            if (limiter != null) {
+                unlimited += 2 + dk.compressedKey.length + 8 + 4 + dataLen;
+                if (unlimited >= rateLimitChunk) {
+                    limiter.acquire(unlimited);
+                    unlimited = 0;
+                }
             }
         }
 
-        // pad key file to block size
-        if (keyBlockLen > 0 && keyBlockLen < Constants.keyBlockSize) {
-            // key won't fit in block so move to next
-            keyW.writeShort(Constants.endOfBlock);
-            keyBlockLen += 2;
-            keyW.write(zeros, 0, Constants.keyBlockSize - keyBlockLen);
+        /** completes the files, @return the key index */
+        List<byte[]> finish() throws IOException {
+            // pad key file to block size
+            if (keyBlockLen > 0 && keyBlockLen < Constants.keyBlockSize) {
+                finishBlock(keyW, keyBlockLen, restarts, restartCount, zeros);
+                keyBlockLen = 0;
+            }
+
+            keyW.close();
+            dataW.close();
+
+            if(filter!=null) {
+                try (var filterW = new FileOutputStream(filterFile)) {
+                    filterW.write(filter.build());
+                }
+            }
+
+            return keyIndex;
+        }
+
+        @Override
+        public void close() throws IOException {
+            keyW.close();
+            dataW.close();
         }
+    }
 
-        keyW.flush();
-        dataW.flush();
+    private static int restartTrailerSize(int restartCount) {
+        return restartCount * 2 + 2 + 1;
+    }
 
-        return keyIndex;
+    /**
+     * writes the end of block marker and pads the block. The block ends with the restart trailer: the offset of each
+     * restart key, the number of restarts and the block format version. Blocks written before restarts were
+     * supported always end in a zero byte.
+     */
+    private static void finishBlock(LittleEndianDataOutputStream keyW, int keyBlockLen, int[] restarts, int restartCount, byte[] zeros) throws IOException {
+        keyW.writeShort(Constants.endOfBlock);
+        keyBlockLen += 2;
+        int trailerSize = restartTrailerSize(restartCount);
+        keyW.write(zeros, 0, Constants.keyBlockSize - keyBlockLen - trailerSize);
+        for (int i = 0; i < restartCount; i++) {
+            keyW.writeShort(restarts[i]);
+        }
+        keyW.writeShort(restartCount);
+        keyW.write(Constants.blockFormatRestarts);
     }
 
     private static DiskKey encodeKey(byte[] key,byte[] prevKey) {
@@ -4,41 +4,83 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.robaho.jleveldb.Constants.*;
 
 class DiskSegment implements Segment {
+    private static final AtomicLong nextCacheId = new AtomicLong();
+
     final MemoryMappedFile keyFile;
     long keyBlocks;
     final MemoryMappedFile dataFile;
     final long lowerID;
     final long upperID;
+    // a split merge writes several segments with the same ids and disjoint keys, see Merger.mergeSegments
+    final int partition;
+    final int partitions;
 
     final private String keyfilename;
     final private String datafilename;
+    final private String filterfilename;
+
+    // null if the segment was written without a filter
+    final BloomFilter filter;
+
+    // null if block caching is disabled, otherwise shared by all segments of the database
+    final BlockCache cache;
+    // identifies this segment's blocks in the cache, unique within the process
+    final long cacheId = nextCacheId.incrementAndGet();
 
     // nil for segments loaded during initial open
     // otherwise holds the key for every keyIndexInterval block
     final List<byte[]> keyIndex;
     final long size;
 
+    // the level of the segment in a leveled database, assigned before the segment is added to the database state
+    int level;
+    // the largest key, read on first use if not known from the manifest
+    private volatile byte[] lastKey;
+    // the keys in the segment, and those that are removals, -1 until counted if the segment was loaded at open, see
+    // Merger.countRemovals
+    private volatile long entries = -1;
+    private volatile long removals = -1;
+
     public DiskSegment(String keyFilename, String dataFilename, List<byte[]> keyIndex) throws IOException {
+        this(keyFilename,dataFilename,keyIndex,new Options());
+    }
+
+    public DiskSegment(String keyFilename, String dataFilename, List<byte[]> keyIndex, Options options) throws IOException {
         this.keyfilename = keyFilename;
         this.datafilename = dataFilename;
+        this.filterfilename = filterFilename(keyFilename);
 
         keyFile = new MemoryMappedFile(new RandomAccessFile(new File(keyFilename),"r"));
         dataFile = new MemoryMappedFile(new RandomAccessFile(dataFilename,"r"));
         this.lowerID = Utils.getSegmentIDs(keyFilename)[0];
         this.upperID = Utils.getSegmentIDs(keyFilename)[1];
+        int[] partition = Utils.getPartition(Utils.getFileName(keyFilename));
+        this.partition = partition[0];
+        this.partitions = partition[1];
         this.keyBlocks = (keyFile.length()-1)/keyBlockSize + 1;
 
         size = Files.size(Path.of(keyFilename))+Files.size(Path.of(dataFilename));
 
+        Path filterPath = Path.of(filterfilename);
+        filter = Files.exists(filterPath) ? BloomFilter.load(filterPath) : null;
+        cache = options.blockCache;
+
         if(keyIndex == null) {
             // TODO maybe load this in the background
             keyIndex = loadKeyIndex(keyFile, keyBlocks);
@@ -58,6 +100,83 @@ class DiskSegment implements Segment {
         return size;
     }
 
+    /** @return the smallest key in the segment, or null if the segment is empty */
+    byte[] firstKey() {
+        return keyIndex.isEmpty() ? null : keyIndex.get(0);
+    }
+
+    /** @return the largest key in the segment, or null if the segment is empty */
+    byte[] lastKey() throws IOException {
+        if(lastKey==null && size()>0) {
+            var cursor = cursor();
+            cursor.seekToLast();
+            lastKey = cursor.key();
+        }
+        return lastKey;
+    }
+
+    void setLastKey(byte[] lastKey) {
+        this.lastKey = lastKey;
+    }
+
+    /** @return the number of keys, including removals, or -1 if not known */
+    long entries() {
+        return entries;
+    }
+
+    /** @return the number of removed keys, or -1 if not known */
+    long removals() {
+        return removals;
+    }
+
+    void setCounts(long entries, long removals) {
+        this.removals = removals;
+        this.entries = entries;
+    }
+
+    /** reads the key blocks to count the keys and removals, if they are not known */
+    void countEntries() throws IOException {
+        if(entries>=0) {
+            return;
+        }
+        long entries = 0, removals = 0;
+        if(keyFile.length()>0) {
+            byte[] buffer = new byte[keyBlockSize];
+            for(long block=0;block<keyBlocks;block++) {
+                keyFile.readAt(buffer,block*keyBlockSize,keyBlockSize);
+                KeyBlock kb = KeyBlock.decode(buffer);
+                entries += kb.count;
+                for(int i=0;i<kb.count;i++) {
+                    if(kb.dataLens[i]==0) {
+                        removals++;
+                    }
+                }
+            }
+        }
+        setCounts(entries,removals);
+    }
+
+    /** @return false if the segment cannot contain the key, including as a removal, compare is the key order */
+    boolean mayContain(byte[] key,Comparator<byte[]> compare) throws IOException {
+        if(firstKey()==null || compare.compare(key,firstKey())<0 || compare.compare(key,lastKey())>0) {
+            return false;
+        }
+        return filter==null || filter.mayContain(key);
+    }
+
+    /** @return the keys file name without the prefix, which identifies the segment files */
+    String segmentName() {
+        return Utils.trimPrefix(Utils.getFileName(keyfilename),"keys.");
+    }
+
+    /** returns the filter file name that corresponds to the keys file name */
+    static String filterFilename(String keyFilename) {
+        Path path = Path.of(keyFilename);
+        String name = "filter."+Utils.trimPrefix(path.getFileName().toString(),"keys.");
+        Path parent = path.getParent();
+        return parent==null ? name : parent.resolve(name).toString();
+    }
+
     static List<byte[]> loadKeyIndex(MemoryMappedFile keyFile,long keyBlocks) throws IOException {
         if(keyFile.length()==0) {
             return Collections.emptyList();
@@ -95,32 +214,89 @@ class DiskSegment implements Segment {
                 continue;
             }
             String base = Utils.trimSuffix(file.getName(),".tmp");
+            if(base.equals(Manifest.FILENAME)) {
+                // the previous manifest is still valid
+                Utils.removeFileIfExists(path,file.getName());
+                continue;
+            }
             String segs;
             if(base.startsWith("keys.")) {
                 segs = Utils.trimPrefix(base, "keys.");
+            } else if(base.startsWith("filter.")) {
+                segs = Utils.trimPrefix(base, "filter.");
             } else {
                 segs = Utils.trimPrefix(base, "data.");
             }
             Utils.removeFileIfExists(path,"keys."+segs);
             Utils.removeFileIfExists(path,"data."+segs);
+            Utils.removeFileIfExists(path,"filter."+segs);
             Utils.removeFileIfExists(path,"keys."+segs+".tmp");
             Utils.removeFileIfExists(path,"data."+segs+".tmp");
+            Utils.removeFileIfExists(path,"filter."+segs+".tmp");
+        }
+
+        // a leveled database lists its disk segments in the manifest, in database order
+        List<Manifest.Entry> manifest = Manifest.read(path);
+        Set<String> listed = new HashSet<>();
+        if(manifest!=null) {
+            for(Manifest.Entry e : manifest) {
+                listed.add(e.name);
+            }
         }
 
+        List<File> logs = new ArrayList<>();
+        List<String> names = new ArrayList<>();
         for (var file : dir.listFiles()) {
             if(file.getName().startsWith("log.")) {
-                var ls = new LogSegment(file.getPath(),options);
-                segments.add(ls);
+                logs.add(file);
                 continue;
             }
             if(!file.getName().startsWith("keys.")) {
                 continue;
             }
             String segs = Utils.trimPrefix(file.getName(),"keys.");
+            if(manifest!=null) {
+                if(!listed.contains(segs)) {
+                    // written by a flush or compaction that did not complete
+                    Utils.removeFileIfExists(path,"keys."+segs);
+                    Utils.removeFileIfExists(path,"data."+segs);
+                    Utils.removeFileIfExists(path,"filter."+segs);
+                }
+                continue;
+            }
+            names.add(segs);
+        }
+        if(manifest!=null) {
+            names.clear();
+            for(Manifest.Entry e : manifest) {
+                names.add(e.name);
+            }
+        }
+
+        // a log that was written to a disk segment but not removed is removed without replaying it
+        List<Callable<Segment>> loaders = new ArrayList<>();
+next:
+        for(File log : logs) {
+            long id = Utils.getSegmentID(log.getPath());
+            for(String name : names) {
+                long[] ids = Utils.getSegmentIDs("keys."+name);
+                if(id >= ids[0] && id <= ids[1]) {
+                    Utils.removeFileIfExists(path,log.getName());
+                    continue next;
+                }
+            }
+            loaders.add(() -> new LogSegment(log.getPath(),options));
+        }
+        if(manifest!=null) {
+            var loaded = loadSegments(loaders);
+            return loadLeveledSegments(path,manifest,loaded,options);
+        }
+        for(String segs : names) {
             String keyFilename = path+"/keys."+segs;
             String dataFilename = path+"/data."+segs;
-            segments.add(new DiskSegment(keyFilename,dataFilename,null));
+            loaders.add(() -> new DiskSegment(keyFilename,dataFilename,null,options));
         }
+        segments.addAll(loadSegments(loaders));
         Collections.sort(segments, (o1, o2) -> {
             int result = Long.compare(o1.upperID(),o2.upperID());
             if(result==0) {
@@ -128,14 +304,20 @@ class DiskSegment implements Segment {
                 // wasn't deleted, so sort the log file first
                 result =  Long.compare(o1.lowerID(),o2.lowerID()) * -1;
             }
+            if(result==0 && isPartition(o1) && isPartition(o2)) {
+                result = Integer.compare(((DiskSegment)o1).partition,((DiskSegment)o2).partition);
+            }
             return result;
         });
-        int pruneCount=0;
+        int pruneCount=removeIncompletePartitions(segments);
 next:
         for (int i=0;i<segments.size();) {
             Segment seg = segments.get(i);
             for(int j=i+1;j<segments.size();j++) {
                 Segment seg0 = segments.get(j);
+                if(isPartition(seg) && Merger.samePartitioning(seg,seg0)) {
+                    continue;
+                }
                 if(seg.lowerID() >= seg0.lowerID() && seg.upperID() <= seg0.upperID()) {
                     segments.remove(i);
                     seg.removeSegment();
@@ -150,6 +332,119 @@ next:
         return segments;
     }
 
+    static boolean isPartition(Segment s) {
+        return s instanceof DiskSegment && ((DiskSegment)s).partitions>1;
+    }
+
+    /**
+     * the partitions of a split merge are only used once all of them were written, otherwise they are removed and
+     * the merged segments, which are only deleted after the merge, are used instead
+     * @return the number of segments removed
+     */
+    private static int removeIncompletePartitions(List<Segment> segments) throws IOException {
+        int removed = 0;
+        for (int i=0;i<segments.size();) {
+            if(!isPartition(segments.get(i))) {
+                i++;
+                continue;
+            }
+            int end = i+1;
+            while(end<segments.size() && Merger.samePartitioning(segments.get(i),segments.get(end))) {
+                end++;
+            }
+            if(end-i==((DiskSegment)segments.get(i)).partitions) {
+                i = end;
+                continue;
+            }
+            var incomplete = segments.subList(i,end);
+            for(Segment s : incomplete) {
+                s.removeSegment();
+                removed++;
+            }
+            incomplete.clear();
+        }
+        return removed;
+    }
+
+    /**
+     * opens the segments in parallel, since replaying a log and reading the key index of a disk segment are mostly
+     * waiting for reads. The number of threads is bounded, as a database may have thousands of segments.
+     * @return the segments in the order of the loaders
+     */
+    static List<Segment> loadSegments(List<Callable<Segment>> loaders) throws IOException {
+        Segment[] segments = new Segment[loaders.size()];
+        AtomicInteger next = new AtomicInteger();
+        int threads = Math.min(loaders.size(), Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        List<FutureTask<?>> futures = new ArrayList<>();
+        for(int t=0;t<threads;t++) {
+            futures.add(BackgroundScheduler.fork(() -> {
+                int i;
+                while((i = next.getAndIncrement()) < segments.length) {
+                    segments[i] = loaders.get(i).call();
+                }
+                return null;
+            }));
+        }
+        Exception error = null;
+        for(var future : futures) {
+            try {
+                future.run();
+                future.get();
+            } catch (ExecutionException e) {
+                // the other threads stop at their next segment
+                next.set(segments.length);
+                if(error==null) {
+                    error = (Exception)e.getCause();
+                }
+            } catch (InterruptedException e) {
+                next.set(segments.length);
+                if(error==null) {
+                    error = e;
+                }
+            }
+        }
+        if(error==null) {
+            return new ArrayList<>(Arrays.asList(segments));
+        }
+        for(Segment s : segments) {
+            if(s!=null) {
+                s.close();
+            }
+        }
+        if(error instanceof IOException) {
+            throw (IOException)error;
+        }
+        throw new IllegalStateException(error);
+    }
+
+    /** orders the log segments after the disk segments listed in the manifest */
+    private static List<Segment> loadLeveledSegments(String path, List<Manifest.Entry> manifest, List<Segment> logs, Options options) throws IOException {
+        List<Callable<Segment>> loaders = new ArrayList<>();
+        for(Manifest.Entry e : manifest) {
+            loaders.add(() -> {
+                var ds = new DiskSegment(path+"/keys."+e.name,path+"/data."+e.name,null,options);
+                ds.level = e.level;
+                ds.setLastKey(e.lastKey);
+                return ds;
+            });
+        }
+        List<Segment> segments = loadSegments(loaders);
+        logs.sort(Comparator.comparingLong(Segment::upperID));
+        int diskSegments = segments.size();
+next:
+        for(Segment log : logs) {
+            // the log was written to a disk segment, but not removed
+            for(Segment ds : segments.subList(0,diskSegments)) {
+                if(log.lowerID() >= ds.lowerID() && log.upperID() <= ds.upperID()) {
+                    log.removeSegment();
+                    continue next;
+                }
+            }
+            segments.add(log);
+        }
+        return segments;
+    }
+
     @Override
     public byte[] put(byte[] key, byte[] value) throws IOException {
         throw new IllegalStateException("disk segments are immutable");
@@ -157,15 +452,41 @@ next:
 
     @Override
     public byte[] get(byte[] key) throws IOException {
-        OffsetLen ol = binarySearch(key);
-        if(ol==null)
+        if(filter!=null && !filter.mayContain(key))
+            return null;
+        ScanContext ctx = bufferCache.get();
+        if(!binarySearch(key,ctx))
             return null;
 
-        byte[] buffer = new byte[ol.len];
-        dataFile.readAt(buffer,ol.offset);
+        byte[] buffer = new byte[ctx.len];
+        dataFile.readAt(buffer,ctx.offset);
         return buffer;
     }
 
+    @Override
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        if(filter!=null && !filter.mayContain(key))
+            return -1;
+        ScanContext ctx = bufferCache.get();
+        if(!binarySearch(key,ctx))
+            return -1;
+        if(ctx.len > dst.remaining())
+            throw new BufferOverflowException();
+
+        dataFile.readAt(dst,ctx.offset,ctx.len);
+        return ctx.len;
+    }
+
+    @Override
+    public ByteBuffer getView(byte[] key) throws IOException {
+        if(filter!=null && !filter.mayContain(key))
+            return null;
+        ScanContext ctx = bufferCache.get();
+        if(!binarySearch(key,ctx))
+            return null;
+        return dataFile.slice(ctx.offset,ctx.len);
+    }
+
     @Override
     public byte[] remove(byte[] key) throws IOException {
         throw new IllegalStateException("disk segments are immutable");
@@ -181,6 +502,7 @@ next:
         close();
         Files.delete(Path.of(keyfilename));
         Files.delete(Path.of(datafilename));
+        Files.deleteIfExists(Path.of(filterfilename));
     }
     // EMPTY is an inner class so that a reference to the parent segment is retained for debugging
     private final LookupIterator EMPTY = new LookupIterator() {
@@ -203,16 +525,28 @@ next:
         ScanContext ctx = new ScanContext();
         long block = 0;
         if(lower != null) {
-            LowHigh lh = indexSearch(lower);
-            if(lh==null)
-                return EMPTY;
-            long startBlock = binarySearch0(lh.low, lh.high, lower, ctx);
+            indexSearch(lower, ctx);
+            long startBlock = binarySearch0(ctx.low, ctx.high, lower, ctx);
             if(startBlock<0)
                 return null;
             block = startBlock;
         }
         keyFile.readAt(ctx.buffer,block* keyBlockSize);
-        return new DiskSegmentIterator(this,lower,upper,ctx.buffer,block);
+        int offset = lower != null ? restartOffset(ctx.buffer, lower) : 0;
+        return new DiskSegmentIterator(this,lower,upper,ctx.buffer,block,offset);
+    }
+
+    @Override
+    public Cursor cursor() throws IOException {
+        return new DiskSegmentCursor(this);
+    }
+
+    /** @return the block that contains key if it is in the segment, otherwise the block it would be in */
+    long findBlock(byte[] key) throws IOException {
+        ScanContext ctx = bufferCache.get();
+        ctx.reset();
+        indexSearch(key, ctx);
+        return binarySearch0(ctx.low, ctx.high, key, ctx);
     }
 
     private static Removable createRemovable(DiskSegment ds) {
@@ -220,13 +554,20 @@ next:
         final var datafile = ds.dataFile;
         final var keyname = ds.keyfilename;
         final var dataname = ds.datafilename;
+        final var filtername = ds.filterfilename;
+        final var fileKey = fileKey(keyname);
         return new Removable() {
             @Override
             public void remove() throws IOException {
                 keyfile.close();
                 datafile.close();
+                // the database may have been removed and recreated with a segment of the same name
+                if(fileKey!=null && !fileKey.equals(fileKey(keyname))) {
+                    return;
+                }
                 Files.deleteIfExists(Path.of(keyname));
                 Files.deleteIfExists(Path.of(dataname));
+                Files.deleteIfExists(Path.of(filtername));
             }
             public String toString() {
                 return "DiskSegment:"+keyname+","+dataname;
@@ -234,6 +575,15 @@ next:
         };
     }
 
+    /** @return the identity of the file, or null if it does not exist or the file system does not provide one */
+    private static Object fileKey(String filename) {
+        try {
+            return Files.readAttributes(Path.of(filename), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
     @Override
     public void removeOnFinalize() {
         Deleter.removeOnFinalize(this,createRemovable(this));
@@ -241,25 +591,10 @@ next:
 
     @Override
     public Collection<String> files() {
-        return List.of(Utils.getFileName(keyfilename),Utils.getFileName(datafilename));
-    }
-
-    private static class OffsetLen {
-        final long offset;
-        final int len;
-        OffsetLen(long offset,int len){
-            this.offset = offset;
-            this.len = len;
-        }
-    }
-
-    private static class LowHigh {
-        final long low, high;
-
-        public LowHigh(long low, long high) {
-            this.low=low;
-            this.high=high;
+        if(filter==null) {
+            return List.of(Utils.getFileName(keyfilename),Utils.getFileName(datafilename));
         }
+        return List.of(Utils.getFileName(keyfilename),Utils.getFileName(datafilename),Utils.getFileName(filterfilename));
     }
 
     private static class ReadStats {
@@ -267,22 +602,25 @@ next:
         int scanRows;
     }
 
-    private OffsetLen binarySearch(byte[] key) throws IOException {
-        ScanContext ctx = bufferCache.get();
+    private static final Comparator<byte[]> keyCompare = Arrays::compare;
+
+    /** @return true if the key was found, with the data location in ctx.offset and ctx.len */
+    private boolean binarySearch(byte[] key, ScanContext ctx) throws IOException {
         ctx.reset();
 
-        LowHigh lh = indexSearch(key);
-        if(lh==null)
-            return null;
+        indexSearch(key, ctx);
 
-        long block = binarySearch0(lh.low, lh.high, key, ctx);
+        long block = binarySearch0(ctx.low, ctx.high, key, ctx);
 
         return scanBlock(block, key, ctx);
     }
 
-    LowHigh indexSearch(byte[] key) {
+    /** narrows the block range using the in memory index, setting ctx.low and ctx.high */
+    void indexSearch(byte[] key, ScanContext ctx) {
         if(keyIndex==null) {
-            return new LowHigh(0, keyBlocks - 1);
+            ctx.low = 0;
+            ctx.high = keyBlocks - 1;
+            return;
         }
 
         long lowblock,highblock;
@@ -293,12 +631,7 @@ next:
         //                System.out.println(new String(b));
         //            }
 
-        int index = Collections.binarySearch(keyIndex,key,new Comparator<byte[]>() {
-            @Override
-            public int compare(byte[] o1, byte[] o2) {
-                return Arrays.compare(o1,o2);
-            }
-        });
+        int index = Collections.binarySearch(keyIndex,key,keyCompare);
         if(index>=0) {
             highblock = lowblock = index* keyIndexInterval;
         } else {
@@ -312,30 +645,88 @@ next:
         if(highblock >= keyBlocks) {
             highblock = keyBlocks - 1;
         }
-        return new LowHigh(lowblock,highblock);
+        ctx.low = lowblock;
+        ctx.high = highblock;
     }
 
     private static int compareKeys(byte[] b,byte[] buffer){
-        short len = (short) (buffer[0]<<0+(buffer[1]<<8));
-        int offset=2;
-        for(int i=0;i<len;i++){
-            if(i==b.length)
-                return -1;
-            int result = Byte.compare(b[i],buffer[offset+i]);
-            if(result!=0) {
-                return result;
+        return compareKeys(b,buffer,0);
+    }
+
+    /** compares b to the uncompressed key stored at offset in buffer */
+    private static int compareKeys(byte[] b,byte[] buffer,int offset){
+        int len = (buffer[offset] & 0xFF) | ((buffer[offset+1] & 0xFF) << 8);
+        return Arrays.compare(b,0,b.length,buffer,offset+2,offset+2+len);
+    }
+
+    /**
+     * uses the restart trailer to binary search the block
+     * @return the offset of the last restart key that is less than or equal to key, or 0 if the block has no restarts
+     */
+    static int restartOffset(byte[] buffer,byte[] key) {
+        if(buffer[keyBlockSize-1]!=Constants.blockFormatRestarts) {
+            return 0;
+        }
+        int count = (buffer[keyBlockSize-3] & 0xFF) | ((buffer[keyBlockSize-2] & 0xFF) << 8);
+        if(count==0) {
+            return 0;
+        }
+        int restarts = keyBlockSize - 3 - count*2;
+
+        int low=0, high=count-1;
+        while(low<high) {
+            int mid = (low+high+1)>>>1;
+            int offset = (buffer[restarts+mid*2] & 0xFF) | ((buffer[restarts+mid*2+1] & 0xFF) << 8);
+            if(compareKeys(key,buffer,offset)<0) {
+                high = mid-1;
+            } else {
+                low = mid;
             }
         }
-        if(len<b.length)
-            return 1;
-        return 0;
+        return (buffer[restarts+low*2] & 0xFF) | ((buffer[restarts+low*2+1] & 0xFF) << 8);
+    }
+
+    /** compares the key to the first key in the block */
+    private int compareFirstKey(byte[] key, long block, ScanContext ctx) throws IOException {
+        // probes only read the first key, so they use a cached block but are not worth decoding one
+        if(cache!=null) {
+            KeyBlock kb = cache.peek(cacheId, block);
+            if(kb!=null) {
+                return -1 * kb.compare(0, key);
+            }
+        }
+        long position = block*Constants.keyBlockSize;
+        keyFile.readAt(ctx.buffer, position, 2);
+        int len = (ctx.buffer[0] & 0xFF) | ((ctx.buffer[1] & 0xFF) << 8);
+        keyFile.readAt(ctx.buffer, position, len+2);
+        return compareKeys(key,ctx.buffer);
+    }
+
+    /**
+     * returns the decoded block from the cache, reading and caching it if it was recently missed
+     * @return null if the block is not cached, and should be searched in place
+     */
+    KeyBlock cachedBlock(long block, ScanContext ctx) throws IOException {
+        KeyBlock kb = cache.get(cacheId, block);
+        if(kb==null && cache.admit(cacheId, block)) {
+            keyFile.readAt(ctx.buffer, block*Constants.keyBlockSize, keyBlockSize);
+            kb = KeyBlock.decode(ctx.buffer);
+            cache.put(cacheId, block, kb);
+        }
+        return kb;
+    }
+
+    /** removes this segment's blocks from the shared cache */
+    void evictCached() {
+        if(cache!=null) {
+            cache.evict(cacheId);
+        }
     }
 
     long binarySearch0(long lowBlock, long highBlock, byte[] key, ScanContext ctx) throws IOException {
         if(highBlock-lowBlock <= 1) {
             // the key is either in low block or high block, or does not exist, so check high block
-            keyFile.readAt(ctx.buffer, highBlock* keyBlockSize, maxKeySize+2);
-            if(compareKeys(key,ctx.buffer)<0) {
+            if(compareFirstKey(key,highBlock,ctx)<0) {
                 return lowBlock;
             } else {
                 return highBlock;
@@ -344,9 +735,7 @@ next:
 
         long block = (lowBlock+highBlock)/2;
 
-        keyFile.readAt(ctx.buffer, block*Constants.keyBlockSize, maxKeySize+2);
-
-        if(compareKeys(key,ctx.buffer)<0) {
+        if(compareFirstKey(key,block,ctx)<0) {
             return binarySearch0(lowBlock, block-1, key, ctx);
         } else {
             return binarySearch0(block, highBlock, key, ctx);
@@ -357,6 +746,10 @@ next:
         final KeyBuffer key = new KeyBuffer();
         final byte[] buffer = new byte[keyBlockSize];
         final LittleEndianDataInputStream is = new LittleEndianDataInputStream(buffer);
+        // results of the search, so that point lookups do not allocate
+        long low, high;
+        long offset;
+        int len;
         void reset() {
             key.clear();
             is.reset();
@@ -369,30 +762,43 @@ next:
             return new ScanContext();
         }
     };
-    OffsetLen scanBlock(long block, byte[] key,ScanContext ctx) throws IOException {
+    boolean scanBlock(long block, byte[] key,ScanContext ctx) throws IOException {
+        if(cache!=null) {
+            KeyBlock kb = cachedBlock(block, ctx);
+            if(kb!=null) {
+                int index = kb.find(key);
+                if(index<0)
+                    return false;
+                ctx.offset = kb.dataOffsets[index];
+                ctx.len = kb.dataLens[index];
+                return true;
+            }
+        }
+
         ctx.reset();
 
         keyFile.readAt(ctx.buffer, block*Constants.keyBlockSize,keyBlockSize);
 
         LittleEndianDataInputStream is = ctx.is;
+        is.skip(restartOffset(ctx.buffer,key));
 
         KeyBuffer currKey = ctx.key;
 
         for(;;) {
             int keylen = is.readShort() & 0xFFFF;
             if(keylen == endOfBlock) {
-                return null;
+                return false;
             }
             CompressedKey.decodeKey(currKey,keylen,is);
 
             int result = currKey.compare(key);
             if(result==0) {
-                long offset = is.readLong();
-                int len = is.readInt();
-                return new OffsetLen(offset,len);
+                ctx.offset = is.readLong();
+                ctx.len = is.readInt();
+                return true;
             }
             if(result>0) {
-                return null;
+                return false;
             }
             is.skip(12);
         }
@@ -0,0 +1,143 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+
+import static com.robaho.jleveldb.Constants.keyBlockSize;
+
+/**
+ * cursor over a disk segment. The current key block is decoded so that the cursor can move backwards within it,
+ * and moves to the adjacent block at either end. Removed keys have an empty value.
+ */
+class DiskSegmentCursor implements Cursor {
+    private final DiskSegment segment;
+    private final byte[] buffer = new byte[keyBlockSize];
+    private long block = -1;
+    private KeyBlock kb;
+    private int index;
+    private boolean valid;
+    private byte[] key;
+
+    DiskSegmentCursor(DiskSegment segment) {
+        this.segment = segment;
+    }
+
+    private void load(long block) throws IOException {
+        if(this.block==block)
+            return;
+        kb = null;
+        if(segment.cache!=null) {
+            kb = segment.cache.get(segment.cacheId, block);
+        }
+        if(kb==null) {
+            segment.keyFile.readAt(buffer,block*keyBlockSize);
+            kb = KeyBlock.decode(buffer);
+        }
+        this.block = block;
+    }
+
+    private boolean isEmpty() {
+        return segment.keyFile.length()==0;
+    }
+
+    /** moves forward to the next block if the index is past the end of the current one */
+    private void skipForward() throws IOException {
+        key = null;
+        while(index>=kb.count) {
+            if(block+1>=segment.keyBlocks) {
+                valid = false;
+                return;
+            }
+            load(block+1);
+            index = 0;
+        }
+        valid = true;
+    }
+
+    /** moves back to the previous block if the index is before the start of the current one */
+    private void skipBackward() throws IOException {
+        key = null;
+        while(index<0) {
+            if(block==0) {
+                valid = false;
+                return;
+            }
+            load(block-1);
+            index = kb.count-1;
+        }
+        valid = true;
+    }
+
+    @Override
+    public void seek(byte[] key) throws IOException {
+        if(isEmpty()) {
+            valid = false;
+            return;
+        }
+        load(segment.findBlock(key));
+        index = kb.find(key);
+        if(index<0) {
+            index = -index - 1;
+        }
+        skipForward();
+    }
+
+    @Override
+    public void seekToFirst() throws IOException {
+        if(isEmpty()) {
+            valid = false;
+            return;
+        }
+        load(0);
+        index = 0;
+        skipForward();
+    }
+
+    @Override
+    public void seekToLast() throws IOException {
+        if(isEmpty()) {
+            valid = false;
+            return;
+        }
+        load(segment.keyBlocks-1);
+        index = kb.count-1;
+        skipBackward();
+    }
+
+    @Override
+    public boolean valid() {
+        return valid;
+    }
+
+    @Override
+    public void next() throws IOException {
+        index++;
+        skipForward();
+    }
+
+    @Override
+    public void prev() throws IOException {
+        index--;
+        skipBackward();
+    }
+
+    @Override
+    public byte[] key() {
+        if(key==null) {
+            key = kb.key(index);
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] value() throws IOException {
+        int len = kb.dataLens[index];
+        if(len==0)
+            return KeyValue.EMPTY;
+        byte[] value = new byte[len];
+        int result = segment.dataFile.readAt(value,kb.dataOffsets[index],len);
+        if(result!=len) {
+            throw new IOException("unable to read data file, expecting " + len + ", read " + result);
+        }
+        return value;
+    }
+}
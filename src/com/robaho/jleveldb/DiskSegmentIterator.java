@@ -25,13 +25,15 @@ class DiskSegmentIterator implements LookupIterator{
 
     LittleEndianDataInputStream is;
 
-    DiskSegmentIterator(DiskSegment segment,byte[] lower,byte[] upper,byte[] buffer,long block){
+    DiskSegmentIterator(DiskSegment segment,byte[] lower,byte[] upper,byte[] buffer,long block,int offset){
         this.segment = segment;
         this.lower = lower;
         this.upper = upper;
         this.buffer = buffer;
         this.block = block;
         is = new LittleEndianDataInputStream(buffer);
+        // start at the restart point preceding lower, rather than the start of the block
+        is.skip(offset);
     }
 
     @Override
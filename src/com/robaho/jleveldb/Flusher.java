@@ -0,0 +1,103 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * writes memory segments to disk segments as soon as they are rotated, and the log segments recovered during open,
+ * so that the heap used by memory segments is bounded independent of when segments are merged.
+ */
+class Flusher {
+    /** starts a background flush if there are segments to flush and one is not already running. Must hold the database lock. */
+    static void maybeFlush(Database db) {
+        if(!db.open || db.error != null || firstUnflushed(db.state.segments) == null) {
+            return;
+        }
+        if(!db.inFlush.compareAndSet(false,true)) {
+            return;
+        }
+        db.wg.add(1);
+        BackgroundScheduler.shared.submit(new BackgroundScheduler.Job(true) {
+            @Override
+            public void run() {
+                try {
+                    flushSegments(db);
+                } catch (Exception e) {
+                    db.lock();
+                    db.error = e;
+                    db.unlock();
+                } finally {
+                    db.inFlush.set(false);
+                    // a segment may have been rotated after the last check
+                    db.lock();
+                    try {
+                        maybeFlush(db);
+                    } finally {
+                        db.unlock();
+                    }
+                    Merger.scheduleMerge(db);
+                    db.wg.done();
+                }
+            }
+
+            @Override
+            double urgency() {
+                return 0;
+            }
+
+            @Override
+            boolean cancelled() {
+                return !db.open;
+            }
+        });
+    }
+
+    static Segment firstUnflushed(List<Segment> segments) {
+        for(Segment s : segments) {
+            if(!(s instanceof DiskSegment)) {
+                return s;
+            }
+        }
+        return null;
+    }
+
+    /** writes the memory and log segments to disk, oldest first, replacing each in the database state */
+    static void flushSegments(Database db) throws IOException {
+        while(true) {
+            Segment seg = firstUnflushed(db.state.segments);
+            if(seg == null) {
+                return;
+            }
+            DiskSegment ds = DiskIO.writeSegmentToDisk(db.path, seg, db.options);
+            if(db.manifest != null) {
+                synchronized (db.manifest) {
+                    replace(db, seg, ds);
+                    db.manifest.write(db.state.segments);
+                }
+            } else {
+                replace(db, seg, ds);
+            }
+            // the log is only removed once the disk segment is recorded
+            seg.removeSegment();
+        }
+    }
+
+    /** replaces the segment with the disk segment, or removes it if it was empty */
+    private static void replace(Database db, Segment seg, DiskSegment ds) {
+        db.lock();
+        try {
+            // a merge may have changed the older segments, so locate the segment again
+            var segments = new ArrayList<>(db.state.segments);
+            int index = segments.indexOf(seg);
+            if(ds == null) {
+                segments.remove(index);
+            } else {
+                segments.set(index, ds);
+            }
+            db.state = new DatabaseState(segments, db.state.memory, new MultiSegment(Segment.copyAndAppend(segments, db.state.memory)));
+        } finally {
+            db.unlock();
+        }
+    }
+}
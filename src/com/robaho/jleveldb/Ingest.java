@@ -0,0 +1,232 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseClosedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * adds sorted data to the database as disk segments, without writing it to the log and memory segment, or merging it.
+ * The ingested segments are newer than all existing data, so the memory segment is first written to disk, and the
+ * segments are added together with a single new segment id. Several segments must have disjoint key ranges, and are
+ * added as the partitions of one segment, see Merger.mergeSegments, so a lookup searches only one of them.
+ * <p>
+ * The segment files are first moved into the database directory under a staging name, segment 0.N with a .tmp suffix,
+ * since segment ids start at 1. An ingest that does not complete is removed on open, as are the partitions of an
+ * incomplete group, and a leveled database only uses the segments listed in its manifest.
+ */
+class Ingest {
+    private static final AtomicLong nextStaging = new AtomicLong();
+
+    private static class Staged {
+        // the segment files are keys.name.tmp, data.name.tmp and filter.name.tmp in the database directory
+        final String name;
+        // the keys file the segment was moved from, or null if it was written by ingest()
+        final String source;
+        DiskSegment segment;
+
+        Staged(String name, String source) {
+            this.name = name;
+            this.source = source;
+        }
+    }
+
+    private static String stagingName() {
+        return "0." + nextStaging.incrementAndGet();
+    }
+
+    static void ingest(Database db, Iterator<KeyValue> sorted) throws IOException {
+        String name = stagingName();
+        // the writer adds a .tmp suffix while writing, and removes it on finish
+        try (var w = new SegmentWriter(db.path, name + ".tmp", db.options)) {
+            while (sorted.hasNext()) {
+                KeyValue kv = sorted.next();
+                w.put(kv.key, kv.value);
+            }
+            w.finish();
+        }
+        install(db, List.of(new Staged(name, null)));
+    }
+
+    static void ingestFiles(Database db, List<String> keyFiles) throws IOException {
+        List<Staged> staged = new ArrayList<>();
+        try {
+            for (String keyFile : keyFiles) {
+                if (!Utils.getFileName(keyFile).startsWith("keys.")) {
+                    throw new IOException("not a keys file " + keyFile);
+                }
+                var s = new Staged(stagingName(), keyFile);
+                // the keys file is moved last, so that it is never present without the other files
+                for (String prefix : new String[]{"filter.", "data.", "keys."}) {
+                    Path from = sibling(keyFile, prefix);
+                    if (Files.exists(from) || !prefix.equals("filter.")) {
+                        Files.move(from, Path.of(db.path, prefix + s.name + ".tmp"));
+                    }
+                }
+                staged.add(s);
+            }
+        } catch (IOException e) {
+            for (Staged s : staged) {
+                unstage(db, s);
+            }
+            throw e;
+        }
+        install(db, staged);
+    }
+
+    /** @return the path of the data or filter file of the segment */
+    private static Path sibling(String keyFile, String prefix) {
+        Path path = Path.of(keyFile);
+        return path.resolveSibling(prefix + Utils.trimPrefix(path.getFileName().toString(), "keys."));
+    }
+
+    /** moves the segment files back to where they came from, or removes them if they were written by ingest() */
+    private static void unstage(Database db, Staged s) {
+        for (String prefix : new String[]{"keys.", "data.", "filter."}) {
+            Path staged = Path.of(db.path, prefix + s.name + ".tmp");
+            try {
+                if (s.source == null) {
+                    Files.deleteIfExists(staged);
+                } else if (Files.exists(staged)) {
+                    Files.move(staged, sibling(s.source, prefix));
+                }
+            } catch (IOException ignore) {
+                // staged files are removed when the database is next opened
+            }
+        }
+    }
+
+    private static void install(Database db, List<Staged> staged) throws IOException {
+        List<Staged> segments = new ArrayList<>();
+        try {
+            for (Staged s : staged) {
+                s.segment = new DiskSegment(db.path + "/keys." + s.name + ".tmp", db.path + "/data." + s.name + ".tmp", null, db.options);
+                if (s.segment.firstKey() == null) {
+                    s.segment.removeSegment();
+                    s.segment = null;
+                } else {
+                    segments.add(s);
+                }
+            }
+            Comparator<byte[]> compare = KeyComparison.newKeyCompare(db.options);
+            segments.sort((a, b) -> compare.compare(a.segment.firstKey(), b.segment.firstKey()));
+            for (int i = 1; i < segments.size(); i++) {
+                if (compare.compare(segments.get(i - 1).segment.lastKey(), segments.get(i).segment.firstKey()) >= 0) {
+                    throw new IOException("ingested segments must not overlap");
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Staged s : staged) {
+                if (s.segment != null) {
+                    s.segment.close();
+                }
+                unstage(db, s);
+            }
+            throw e;
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+
+        db.lock();
+        Database.Writer w = null;
+        try {
+            if (!db.open) {
+                throw new DatabaseClosedException();
+            }
+            w = db.enterExclusive();
+            // the memory segment is written to disk, so that the ingested segments follow all disk segments
+            var segs = Segment.copyAndAppend(db.state.segments, db.state.memory);
+            var memory = new MemorySegment(db.path, db.nextSegmentID(), db.options);
+            db.state = new DatabaseState(segs, memory, new MultiSegment(Segment.copyAndAppend(segs, memory)));
+            db.unlock();
+            try {
+                flush(db);
+                long id = db.nextSegmentID();
+                List<DiskSegment> ingested = rename(db, segments, id);
+                // a segment id newer than the ingested segments, the empty memory segment was never written
+                var newMemory = new MemorySegment(db.path, db.nextSegmentID(), db.options);
+                if (db.manifest != null) {
+                    synchronized (db.manifest) {
+                        add(db, ingested, newMemory);
+                        db.manifest.write(db.state.segments);
+                    }
+                } else {
+                    add(db, ingested, newMemory);
+                }
+            } finally {
+                db.lock();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Staged s : segments) {
+                if (s.segment != null) {
+                    s.segment.close();
+                    unstage(db, s);
+                }
+            }
+            throw e;
+        } finally {
+            if (w != null) {
+                db.exitExclusive(w);
+            }
+            db.unlock();
+        }
+        db.maybeMerge();
+    }
+
+    /** writes the memory and log segments to disk, excluding the background flush */
+    private static void flush(Database db) throws IOException {
+        while (!db.inFlush.compareAndSet(false, true)) {
+            LockSupport.parkNanos(1000000);
+        }
+        try {
+            Flusher.flushSegments(db);
+        } finally {
+            db.inFlush.set(false);
+        }
+    }
+
+    /** renames the staged segments to their final names, in key order, @return the renamed segments */
+    private static List<DiskSegment> rename(Database db, List<Staged> segments, long id) throws IOException {
+        List<DiskSegment> renamed = new ArrayList<>();
+        for (int p = 0; p < segments.size(); p++) {
+            Staged s = segments.get(p);
+            String name = segments.size() == 1 ? String.format("%d.%d", id, id) : String.format("%d.%d.%d.%d", id, id, p, segments.size());
+            List<byte[]> keyIndex = s.segment.keyIndex;
+            byte[] lastKey = s.segment.lastKey();
+            s.segment.close();
+            s.segment = null;
+            // the keys file is renamed last, so that it is never present without the other files
+            for (String prefix : new String[]{"filter.", "data.", "keys."}) {
+                File from = new File(db.path, prefix + s.name + ".tmp");
+                if (from.exists() || !prefix.equals("filter.")) {
+                    Files.move(from.toPath(), Path.of(db.path, prefix + name));
+                }
+            }
+            var ds = new DiskSegment(db.path + "/keys." + name, db.path + "/data." + name, keyIndex, db.options);
+            ds.setLastKey(lastKey);
+            renamed.add(ds);
+        }
+        return renamed;
+    }
+
+    /** adds the segments after the disk segments, all segments are on disk while the writes are excluded */
+    private static void add(Database db, List<DiskSegment> ingested, MemorySegment memory) {
+        db.lock();
+        try {
+            var segments = new ArrayList<>(db.state.segments);
+            segments.addAll(ingested);
+            db.state = new DatabaseState(segments, memory, new MultiSegment(Segment.copyAndAppend(segments, memory)));
+        } finally {
+            db.unlock();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.robaho.jleveldb;
+
+import java.util.Arrays;
+
+import static com.robaho.jleveldb.Constants.endOfBlock;
+
+/** a fully decoded key block, the keys are stored uncompressed and contiguous so they can be binary searched */
+final class KeyBlock {
+    final int count;
+    final byte[] keys;
+    // count+1 entries, key i is keys[keyOffsets[i]] to keys[keyOffsets[i+1]]
+    final int[] keyOffsets;
+    final long[] dataOffsets;
+    final int[] dataLens;
+
+    private KeyBlock(int count, byte[] keys, int[] keyOffsets, long[] dataOffsets, int[] dataLens) {
+        this.count = count;
+        this.keys = keys;
+        this.keyOffsets = keyOffsets;
+        this.dataOffsets = dataOffsets;
+        this.dataLens = dataLens;
+    }
+
+    int compare(int index, byte[] key) {
+        return Arrays.compare(keys, keyOffsets[index], keyOffsets[index+1], key, 0, key.length);
+    }
+
+    /** @return the index of the key, or (-(insertion point) - 1) if the key is not in the block */
+    int find(byte[] key) {
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int result = compare(mid, key);
+            if (result < 0) {
+                low = mid + 1;
+            } else if (result > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    byte[] key(int index) {
+        return Arrays.copyOfRange(keys, keyOffsets[index], keyOffsets[index+1]);
+    }
+
+    /** approximate heap usage, used to bound the block cache */
+    int memory() {
+        return 96 + keys.length + (count+1)*4 + count*12;
+    }
+
+    private static int readShort(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return readShort(buffer, offset) | (readShort(buffer, offset + 2) << 16);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return (readInt(buffer, offset) & 0xFFFFFFFFL) | ((long) readInt(buffer, offset + 4) << 32);
+    }
+
+    /** decodes the prefix compressed entries in the block buffer */
+    static KeyBlock decode(byte[] buffer) {
+        // first pass sizes the arrays exactly, the full key length is known without decoding the key
+        int count = 0;
+        int keysLen = 0;
+        for (int offset = 0; ; count++) {
+            int keylen = readShort(buffer, offset);
+            if (keylen == endOfBlock) {
+                break;
+            }
+            if ((keylen & Constants.compressedBit) != 0) {
+                int prefixLen = (keylen >> 8) & Constants.maxPrefixLen;
+                int compressedLen = keylen & Constants.maxCompressedLen;
+                keysLen += prefixLen + compressedLen;
+                offset += 2 + compressedLen + 12;
+            } else {
+                keysLen += keylen;
+                offset += 2 + keylen + 12;
+            }
+        }
+
+        byte[] keys = new byte[keysLen];
+        int[] keyOffsets = new int[count + 1];
+        long[] dataOffsets = new long[count];
+        int[] dataLens = new int[count];
+
+        // the prefix of a compressed key is copied from the previous key, which is already decoded in keys
+        int prevKey = 0;
+        keysLen = 0;
+        for (int i = 0, offset = 0; i < count; i++) {
+            int keylen = readShort(buffer, offset);
+            offset += 2;
+            keyOffsets[i] = keysLen;
+            if ((keylen & Constants.compressedBit) != 0) {
+                int prefixLen = (keylen >> 8) & Constants.maxPrefixLen;
+                int compressedLen = keylen & Constants.maxCompressedLen;
+                System.arraycopy(keys, prevKey, keys, keysLen, prefixLen);
+                System.arraycopy(buffer, offset, keys, keysLen + prefixLen, compressedLen);
+                keysLen += prefixLen + compressedLen;
+                offset += compressedLen;
+            } else {
+                System.arraycopy(buffer, offset, keys, keysLen, keylen);
+                keysLen += keylen;
+                offset += keylen;
+            }
+            prevKey = keyOffsets[i];
+            dataOffsets[i] = readLong(buffer, offset);
+            dataLens[i] = readInt(buffer, offset + 8);
+            offset += 12;
+        }
+        keyOffsets[count] = keysLen;
+
+        return new KeyBlock(count, keys, keyOffsets, dataOffsets, dataLens);
+    }
+}
@@ -0,0 +1,354 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.robaho.jleveldb.DiskIO.writeAndLoadSegment;
+
+/**
+ * merges the disk segments of a leveled database. Level 0 holds the flushed memory segments, which may overlap. Each
+ * deeper level holds segments with non-overlapping key ranges, and may be 10x the size of the previous level. When
+ * level 0 has too many segments they are merged with the overlapping level 1 segments, and when a level exceeds its
+ * size one of its segments is merged with the overlapping segments of the next level, so only overlapping segments
+ * are rewritten.
+ * <p>
+ * The database segments are ordered deepest level first, then the level 0 segments, followed by the memory and log
+ * segments, so the segments holding any key remain in chronological order.
+ */
+class LeveledMerger {
+    private static final int levelMultiplier = 10;
+
+    private static final Comparator<DiskSegment> byFirstKey = (a, b) -> Arrays.compare(a.firstKey(), b.firstKey());
+
+    static class Compaction {
+        // the segments to merge, oldest first
+        final List<DiskSegment> inputs;
+        final int outputLevel;
+        // true if no deeper segment can contain the merged keys, so removed keys can be dropped
+        final boolean removeDeleted;
+
+        Compaction(List<DiskSegment> inputs, int outputLevel, boolean removeDeleted) {
+            this.inputs = inputs;
+            this.outputLevel = outputLevel;
+            this.removeDeleted = removeDeleted;
+        }
+    }
+
+    /** merges until no level exceeds its limit. Must hold the inMerge lock. */
+    static void mergeLevels(Database db, boolean throttle) throws IOException {
+        while (true) {
+            Compaction c = pickCompaction(db.state.segments, db.options, db.manifest);
+            if (c == null) {
+                return;
+            }
+            compact(db, c);
+            if (throttle) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
+        }
+    }
+
+    /** merges all of the disk segments into the deepest level. Must hold the inMerge lock. */
+    static void mergeAll(Database db) throws IOException {
+        var levels = levels(db.state.segments);
+        int deepest = Math.max(1, levels.size() - 1);
+        List<DiskSegment> inputs = new ArrayList<>();
+        boolean merged = true;
+        for (int level = levels.size() - 1; level >= 0; level--) {
+            if (level != deepest && !levels.get(level).isEmpty()) {
+                merged = false;
+            }
+            inputs.addAll(levels.get(level));
+        }
+        if (!merged) {
+            compact(db, new Compaction(inputs, deepest, true));
+        }
+    }
+
+    /** @return true if level 0 needs to be merged */
+    static boolean needsMerge(List<Segment> segments, Options options) {
+        int count = 0;
+        for (Segment s : segments) {
+            if (!(s instanceof DiskSegment)) {
+                break;
+            }
+            if (((DiskSegment) s).level == 0) {
+                count++;
+            }
+        }
+        return count >= options.levelZeroSegments;
+    }
+
+    /** @return true if level 0 needs to be merged, or a level exceeds its size, see pickCompaction */
+    static boolean needsCompaction(List<Segment> segments, Options options) {
+        var levels = levels(segments);
+        if (levels.get(0).size() >= options.levelZeroSegments) {
+            return true;
+        }
+        for (int level = 1; level < levels.size(); level++) {
+            long bytes = 0;
+            for (DiskSegment ds : levels.get(level)) {
+                bytes += ds.size();
+            }
+            if (bytes > maxLevelBytes(options, level)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the disk segments of each level, in database order */
+    static List<List<DiskSegment>> levels(List<Segment> segments) {
+        List<List<DiskSegment>> levels = new ArrayList<>();
+        levels.add(new ArrayList<>());
+        for (Segment s : segments) {
+            if (!(s instanceof DiskSegment)) {
+                break;
+            }
+            DiskSegment ds = (DiskSegment) s;
+            while (levels.size() <= ds.level) {
+                levels.add(new ArrayList<>());
+            }
+            levels.get(ds.level).add(ds);
+        }
+        return levels;
+    }
+
+    static long maxLevelBytes(Options options, int level) {
+        long bytes = options.levelOneBytes;
+        for (int i = 1; i < level; i++) {
+            bytes *= levelMultiplier;
+        }
+        return bytes;
+    }
+
+    /** @return the next compaction, or null if no level exceeds its limit */
+    static Compaction pickCompaction(List<Segment> segments, Options options, Manifest manifest) throws IOException {
+        var levels = levels(segments);
+        if (levels.get(0).size() >= options.levelZeroSegments) {
+            return withOverlapping(levels, new ArrayList<>(levels.get(0)), 1);
+        }
+
+        int best = -1;
+        double bestScore = 1.0;
+        for (int level = 1; level < levels.size(); level++) {
+            long bytes = 0;
+            for (DiskSegment ds : levels.get(level)) {
+                bytes += ds.size();
+            }
+            double score = (double) bytes / maxLevelBytes(options, level);
+            if (score > bestScore) {
+                best = level;
+                bestScore = score;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+
+        // the segments of a level are merged in turn, so that the whole key range is compacted over time
+        List<DiskSegment> level = levels.get(best);
+        byte[] pointer = manifest.compactPointers.get(best);
+        DiskSegment input = level.get(0);
+        if (pointer != null) {
+            for (DiskSegment ds : level) {
+                if (Arrays.compare(ds.firstKey(), pointer) > 0) {
+                    input = ds;
+                    break;
+                }
+            }
+        }
+        manifest.compactPointers.put(best, input.lastKey());
+        return withOverlapping(levels, new ArrayList<>(List.of(input)), best + 1);
+    }
+
+    /** adds the segments of the output level that overlap the inputs */
+    private static Compaction withOverlapping(List<List<DiskSegment>> levels, List<DiskSegment> inputs, int outputLevel) throws IOException {
+        byte[][] range = range(inputs, null);
+        if (outputLevel < levels.size() && range != null) {
+            var overlapping = overlapping(levels.get(outputLevel), range);
+            inputs.addAll(0, overlapping);
+            range = range(overlapping, range);
+        }
+        boolean removeDeleted = true;
+        for (int level = outputLevel + 1; level < levels.size() && range != null; level++) {
+            if (!overlapping(levels.get(level), range).isEmpty()) {
+                removeDeleted = false;
+            }
+        }
+        return new Compaction(inputs, outputLevel, removeDeleted);
+    }
+
+    /** @return the smallest and largest key of the segments combined with range, or null if they are all empty */
+    private static byte[][] range(List<DiskSegment> segments, byte[][] range) throws IOException {
+        for (DiskSegment ds : segments) {
+            if (ds.firstKey() == null) {
+                continue;
+            }
+            if (range == null) {
+                range = new byte[][]{ds.firstKey(), ds.lastKey()};
+                continue;
+            }
+            if (Arrays.compare(ds.firstKey(), range[0]) < 0) {
+                range[0] = ds.firstKey();
+            }
+            if (Arrays.compare(ds.lastKey(), range[1]) > 0) {
+                range[1] = ds.lastKey();
+            }
+        }
+        return range;
+    }
+
+    private static List<DiskSegment> overlapping(List<DiskSegment> segments, byte[][] range) throws IOException {
+        List<DiskSegment> overlapping = new ArrayList<>();
+        for (DiskSegment ds : segments) {
+            if (ds.firstKey() == null) {
+                continue;
+            }
+            if (Arrays.compare(ds.lastKey(), range[0]) >= 0 && Arrays.compare(ds.firstKey(), range[1]) <= 0) {
+                overlapping.add(ds);
+            }
+        }
+        return overlapping;
+    }
+
+    /** writes the merged inputs as segments of the output level, and replaces the inputs in the database */
+    static void compact(Database db, Compaction c) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (Segment s : c.inputs) {
+            files.addAll(s.files());
+        }
+
+        // a large compaction is split into key ranges that are written in parallel
+        List<byte[]> boundaries = Merger.partitionBoundaries(c.inputs, db.options);
+        List<Callable<List<DiskSegment>>> tasks = new ArrayList<>();
+        for (int p = 0; p <= boundaries.size(); p++) {
+            byte[] lower = p == 0 ? null : boundaries.get(p - 1);
+            byte[] upper = p == boundaries.size() ? null : boundaries.get(p);
+            tasks.add(() -> {
+                var range = new Merger.RangeIterator(new MultiSegment(new ArrayList<>(c.inputs)).lookup(lower, null), upper, false);
+                return writeOutputs(db, c, new LimitedIterator(range, c.removeDeleted, db.options.levelSegmentBytes));
+            });
+        }
+        List<DiskSegment> outputs = Merger.writePartitions(tasks);
+
+        synchronized (db.manifest) {
+            db.lock();
+            try {
+                var segments = new ArrayList<>(db.state.segments);
+                for (DiskSegment ds : c.inputs) {
+                    if (!segments.remove(ds)) {
+                        throw new IllegalStateException("unexpected segment change");
+                    }
+                }
+                segments.addAll(0, outputs);
+                segments = order(segments);
+                for (DiskSegment ds : c.inputs) {
+                    ds.evictCached();
+                }
+                db.state = new DatabaseState(segments, db.state.memory, new MultiSegment(Segment.copyAndAppend(segments, db.state.memory)));
+            } finally {
+                db.unlock();
+            }
+            db.manifest.write(db.state.segments);
+        }
+        // the inputs are only removed once the manifest no longer references them
+        for (DiskSegment ds : c.inputs) {
+            ds.removeOnFinalize();
+        }
+        db.deleter.scheduleDeletion(files);
+    }
+
+    /** writes the entries as segments of the output level, each of about options.levelSegmentBytes */
+    private static List<DiskSegment> writeOutputs(Database db, Compaction c, LimitedIterator itr) throws IOException {
+        List<DiskSegment> outputs = new ArrayList<>();
+        try {
+            while (itr.peekKey() != null) {
+                long id = db.nextSegmentID();
+                String keyFilename = String.format("%s/keys.%d.%d", db.path, id, id);
+                String dataFilename = String.format("%s/data.%d.%d", db.path, id, id);
+                DiskSegment ds = writeAndLoadSegment(keyFilename, dataFilename, itr, false, db.options, db.options.compactionLimiter);
+                ds.level = c.outputLevel;
+                ds.setLastKey(itr.lastKey);
+                outputs.add(ds);
+                itr.nextSegment();
+            }
+        } catch (IOException e) {
+            for (DiskSegment ds : outputs) {
+                ds.removeSegment();
+            }
+            throw e;
+        }
+        return outputs;
+    }
+
+    /** orders the disk segments deepest level first, by key within a level, and level 0 in chronological order */
+    static ArrayList<Segment> order(List<Segment> segments) {
+        var levels = levels(segments);
+        var ordered = new ArrayList<Segment>(segments.size());
+        for (int level = levels.size() - 1; level > 0; level--) {
+            var segs = levels.get(level);
+            segs.sort(byFirstKey);
+            ordered.addAll(segs);
+        }
+        // level 0 segments are added in the order they were listed
+        ordered.addAll(levels.get(0));
+        ordered.addAll(segments.subList(ordered.size(), segments.size()));
+        return ordered;
+    }
+
+    /** returns the merged entries in segments of about maxBytes, omitting removed keys if requested */
+    static class LimitedIterator implements LookupIterator {
+        private final LookupIterator itr;
+        private final boolean removeDeleted;
+        private final long maxBytes;
+        private long bytes;
+        private KeyValue next;
+        byte[] lastKey;
+
+        LimitedIterator(LookupIterator itr, boolean removeDeleted, long maxBytes) {
+            this.itr = itr;
+            this.removeDeleted = removeDeleted;
+            this.maxBytes = maxBytes;
+        }
+
+        void nextSegment() {
+            bytes = 0;
+        }
+
+        @Override
+        public byte[] peekKey() throws IOException {
+            if (bytes >= maxBytes) {
+                return null;
+            }
+            while (next == null) {
+                next = itr.next();
+                if (next == null) {
+                    return null;
+                }
+                if (removeDeleted && next.value.length == 0) {
+                    next = null;
+                }
+            }
+            return next.key;
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            if (peekKey() == null) {
+                return null;
+            }
+            KeyValue kv = next;
+            next = null;
+            bytes += kv.key.length + kv.value.length;
+            lastKey = kv.key;
+            return kv;
+        }
+    }
+}
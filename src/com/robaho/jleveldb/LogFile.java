@@ -1,6 +1,9 @@
 package com.robaho.jleveldb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
@@ -9,43 +12,116 @@ import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32C;
 
+/**
+ * the log of the writes to a memory segment, replayed on open if the memory segment was not written to disk.
+ * <p>
+ * The log starts with MAGIC and VERSION, followed by fixed size blocks of records. Each batch is a record in the
+ * WriteBatch encoding of [int count][int key length][key][int value length][value]... A record is split into
+ * fragments so that no fragment crosses a block boundary, and each fragment has a header of [int crc32c][short length]
+ * [byte type], where the checksum covers the type and the fragment data. A block with less than a header remaining is padded with zeros.
+ * Replay stops at the first incomplete or corrupt record, as a torn write only affects the end of the log.
+ * <p>
+ * Logs written before the framed format have no header, and are a sequence of [int key length][key][int value
+ * length][value] entries, with batches between [int -count] markers.
+ */
 class LogFile {
+    // not a valid key length, so that logs written before the framed format are recognized
+    static final int MAGIC = 0x4A4C4F47;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int BLOCK_SIZE = 32 * 1024;
+    static final int FRAGMENT_HEADER_SIZE = 7;
+    static final byte FULL = 1;
+    static final byte FIRST = 2;
+    static final byte MIDDLE = 3;
+    static final byte LAST = 4;
+
     Path filepath;
     private DataOutputStream w;
+    private final FileChannel ch;
     private long id;
-    private boolean inBatch;
     private boolean syncWrite;
     private boolean disableFlush;
+    // the bytes used in the current block
+    private int blockOffset;
+    // encodes the record of a single write
+    private final WriteBatch single = new WriteBatch();
+    private final CRC32C crc = new CRC32C();
+    private static final byte[] zeros = new byte[FRAGMENT_HEADER_SIZE];
 
     LogFile(String path,long id,Options options) throws IOException {
         filepath = Path.of(path+"/log."+id);
         List<StandardOpenOption> file_options = new ArrayList<>(Arrays.asList(StandardOpenOption.TRUNCATE_EXISTING,StandardOpenOption.WRITE,StandardOpenOption.CREATE));
-        if(options.enableSyncWrite){
-            file_options.add(StandardOpenOption.SYNC);
-        }
+        // synchronous writes force the channel once per write, rather than opening with SYNC, so that a group of
+        // writes is synced together
+        syncWrite = options.enableSyncWrite;
         if(!options.enableSyncWrite && options.disableWriteFlush) {
             disableFlush = true;
         }
-        
-        w = new DataOutputStream(new BufferedOS(Files.newOutputStream(filepath,file_options.toArray(new StandardOpenOption[file_options.size()]))));
+
+        ch = FileChannel.open(filepath,file_options.toArray(new StandardOpenOption[file_options.size()]));
+        w = new DataOutputStream(new BufferedOS(Channels.newOutputStream(ch)));
+        w.writeInt(MAGIC);
+        w.writeInt(VERSION);
+    }
+    public void write(byte[] key,byte[] value) throws IOException {
+        single.clear();
+        single.put(key,value);
+        writeRecord(single.data,single.length);
+        if(!disableFlush) {
+            flush();
+        }
     }
-    public void startBatch(int len) throws IOException {
-        inBatch = true;
-        w.writeInt(-len);
+    /** writes the batch as a single record, and flushes it */
+    public void write(WriteBatch batch) throws IOException {
+        writeRecord(batch.data,batch.length);
+        flush();
     }
-    public void endBatch(int len) throws IOException {
-        inBatch = false;
-        w.writeInt(-len);
+    /** writes an encoded batch as a single record, fragmented across blocks. An empty batch is not written. */
+    private void writeRecord(byte[] bytes,int len) throws IOException {
+        if(len<=WriteBatch.HEADER_SIZE) {
+            return;
+        }
+        int offset = 0;
+        boolean first = true;
+        do {
+            if(BLOCK_SIZE - blockOffset < FRAGMENT_HEADER_SIZE) {
+                w.write(zeros,0,BLOCK_SIZE - blockOffset);
+                blockOffset = 0;
+            }
+            int fragment = Math.min(BLOCK_SIZE - blockOffset - FRAGMENT_HEADER_SIZE, len - offset);
+            boolean last = offset + fragment == len;
+            byte type = first && last ? FULL : first ? FIRST : last ? LAST : MIDDLE;
+            crc.reset();
+            crc.update(type);
+            crc.update(bytes,offset,fragment);
+            w.writeInt((int)crc.getValue());
+            w.writeShort(fragment);
+            w.writeByte(type);
+            w.write(bytes,offset,fragment);
+            blockOffset += FRAGMENT_HEADER_SIZE + fragment;
+            offset += fragment;
+            first = false;
+        } while(offset < len);
+    }
+    private void flush() throws IOException {
         w.flush();
+        if(syncWrite) {
+            ch.force(false);
+        }
     }
-    public void write(byte[] key,byte[] value) throws IOException {
-        w.writeInt(key.length);
-        w.write(key);
-        w.writeInt(value.length);
-        w.write(value);
-        if (!inBatch && !disableFlush) {
-            w.flush();
+    /**
+     * writes a group of batches with a single flush, and a single sync if synchronous writes are enabled. Each batch is
+     * a record, so it is recovered atomically.
+     */
+    public void writeGroup(List<WriteBatch> batches) throws IOException {
+        for(WriteBatch batch : batches) {
+            writeRecord(batch.data,batch.length);
+        }
+        if(!disableFlush) {
+            flush();
         }
     }
     public void close() throws IOException {
@@ -56,21 +132,113 @@ class LogFile {
         Files.delete(filepath);
     }
 
+    /** reads the records of a framed log, with a read per block */
+    static class FramedLogReader {
+        private final ConcurrentSkipListMap<byte[],byte[]> list;
+        private final FileChannel ch;
+        private final Options options;
+        private final ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        private final CRC32C crc = new CRC32C();
+        private final ByteArrayOutputStream fragments = new ByteArrayOutputStream();
+
+        private FramedLogReader(FileChannel ch,Options options) {
+            this.list = new ConcurrentSkipListMap<>(KeyComparison.newKeyCompare(options));
+            this.ch = ch;
+            this.options = options;
+            block.limit(0);
+        }
+
+        /** @return false if the file has no more blocks */
+        private boolean readBlock() throws IOException {
+            block.clear();
+            while(block.hasRemaining()) {
+                if(ch.read(block)<0) {
+                    break;
+                }
+            }
+            block.flip();
+            return block.hasRemaining();
+        }
+
+        /** @return the next record, or null at the end of the log or the first incomplete or corrupt record */
+        private byte[] readRecord() throws IOException {
+            fragments.reset();
+            boolean inRecord = false;
+            while(true) {
+                if(block.remaining() < FRAGMENT_HEADER_SIZE) {
+                    // the remainder of a full block is padding, a partial block is the end of the log
+                    if(block.limit() < BLOCK_SIZE && block.remaining() > 0) {
+                        return corrupt("incomplete fragment header");
+                    }
+                    if(!readBlock()) {
+                        return inRecord ? corrupt("incomplete record") : null;
+                    }
+                    continue;
+                }
+                int checksum = block.getInt();
+                int len = block.getShort() & 0xFFFF;
+                byte type = block.get();
+                if(len > block.remaining()) {
+                    return corrupt("incomplete fragment");
+                }
+                crc.reset();
+                crc.update(type);
+                crc.update(block.array(),block.position(),len);
+                if((int)crc.getValue()!=checksum) {
+                    return corrupt("checksum mismatch");
+                }
+                if((type==FULL || type==FIRST) == inRecord || type<FULL || type>LAST) {
+                    return corrupt("unexpected fragment type "+type);
+                }
+                fragments.write(block.array(),block.position(),len);
+                block.position(block.position()+len);
+                if(type==FULL || type==LAST) {
+                    return fragments.toByteArray();
+                }
+                inRecord = true;
+            }
+        }
+
+        /** each record is a batch, so a partial batch is discarded unless the open should fail */
+        private byte[] corrupt(String reason) throws IOException {
+            if(options.batchReadMode== Options.BatchReadMode.returnOpenError) {
+                throw new IOException("corrupt log record, "+reason);
+            }
+            return null;
+        }
+
+        private ConcurrentSkipListMap<byte[],byte[]> readLog() throws IOException {
+            byte[] record;
+            while((record = readRecord())!=null) {
+                var r = new WriteBatch.Reader(record,record.length);
+                try {
+                    while(r.next()) {
+                        list.put(r.key(),r.value());
+                    }
+                } catch (IllegalStateException e) {
+                    // the record passed its checksum, so it was written incorrectly
+                    throw new IOException("corrupt log record",e);
+                }
+            }
+            return list;
+        }
+    }
+
     static class LogFileReader {
         private ConcurrentSkipListMap<byte[],byte[]> list;
         private final DataInputStream is;
         private Options options;
         private LogFileReader(String path,Options options) throws FileNotFoundException {
-            list = new ConcurrentSkipListMap(KeyComparison.newKeyCompare(options));
+            list = new ConcurrentSkipListMap<>(KeyComparison.newKeyCompare(options));
             this.options = options;
             is = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
         }
         private KeyValue readEntry(int keyLen) throws IOException {
             byte[] key = new byte[keyLen];
-            is.read(key);
+            is.readFully(key);
             int valueLen = is.readInt();
             byte[] value = new byte[valueLen];
-            is.read(value);
+            is.readFully(value);
             return new KeyValue(key,value);
         }
         private ConcurrentSkipListMap<byte[],byte[]> readLog() throws IOException {
@@ -120,6 +288,22 @@ class LogFile {
     }
 
     static ConcurrentSkipListMap<byte[],byte[]> readLogFile(String path,Options options) throws IOException {
-        return LogFileReader.readLogFile(path,options);
+        try (var ch = FileChannel.open(Path.of(path),StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && ch.read(header)>=0);
+            header.flip();
+            if(header.remaining()<4 || header.getInt()!=MAGIC) {
+                return LogFileReader.readLogFile(path,options);
+            }
+            if(header.remaining()<4) {
+                // the header was not completely written, so there are no records
+                return new ConcurrentSkipListMap<>(KeyComparison.newKeyCompare(options));
+            }
+            int version = header.getInt();
+            if(version!=VERSION) {
+                throw new IOException("unsupported log version "+version);
+            }
+            return new FramedLogReader(ch,options).readLog();
+        }
     }
 }
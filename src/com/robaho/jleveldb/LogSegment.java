@@ -2,6 +2,7 @@ package com.robaho.jleveldb;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
@@ -34,6 +35,12 @@ public class LogSegment implements Segment {
     public byte[] get(byte[] key) throws IOException {
         return list.get(key);
     }
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        return MemorySegment.copyValue(list.get(key),dst);
+    }
+    public ByteBuffer getView(byte[] key) throws IOException {
+        return MemorySegment.viewValue(list.get(key));
+    }
     public byte[] put(byte[] key,byte[] value) throws IOException {
         throw new IllegalStateException("put() called on immutable segment");
     }
@@ -53,6 +60,10 @@ public class LogSegment implements Segment {
         return MemorySegment.getLookupIterator(lower, upper, list);
     }
 
+    public Cursor cursor() throws IOException {
+        return new MemorySegmentCursor(list);
+    }
+
     private static Removable createRemovable(final String path) {
         return new Removable() {
             @Override
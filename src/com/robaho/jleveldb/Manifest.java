@@ -0,0 +1,107 @@
+package com.robaho.jleveldb;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * records the disk segments of a leveled database in database order, with the level and largest key of each, since
+ * the segment file names only capture the segment ids. The smallest key is the first entry of the segment key index.
+ * <p>
+ * Writing the manifest commits a flush or compaction, so segment files that are not listed are the output of an
+ * interrupted operation and are removed on open. The manifest is rewritten in full and replaced atomically.
+ */
+class Manifest {
+    static final String FILENAME = "manifest";
+    private static final int VERSION = 1;
+
+    static class Entry {
+        // the segment files are keys.name, data.name and filter.name
+        final String name;
+        final int level;
+        final byte[] lastKey;
+
+        Entry(String name, int level, byte[] lastKey) {
+            this.name = name;
+            this.level = level;
+            this.lastKey = lastKey;
+        }
+    }
+
+    private final String dbpath;
+    // the last key merged from each level, so the segments of a level are merged in turn. Guarded by the inMerge lock.
+    final Map<Integer,byte[]> compactPointers = new HashMap<>();
+
+    Manifest(String dbpath) {
+        this.dbpath = dbpath;
+    }
+
+    static boolean exists(String dbpath) {
+        return Files.exists(Path.of(dbpath, FILENAME));
+    }
+
+    /** @return the entries in database order, or null if the database does not have a manifest */
+    static List<Entry> read(String dbpath) throws IOException {
+        Path path = Path.of(dbpath, FILENAME);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (var is = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int version = is.readInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported manifest version " + version);
+            }
+            int count = is.readInt();
+            List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String name = is.readUTF();
+                int level = is.readInt();
+                int len = is.readInt();
+                byte[] lastKey = null;
+                if (len >= 0) {
+                    lastKey = new byte[len];
+                    is.readFully(lastKey);
+                }
+                entries.add(new Entry(name, level, lastKey));
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * replaces the manifest with the disk segments in the list. Callers synchronize on the manifest, and read the
+     * segments while synchronized, so that the last write reflects the latest database state.
+     */
+    void write(List<Segment> segments) throws IOException {
+        Path tmp = Path.of(dbpath, FILENAME + ".tmp");
+        try (var fos = new FileOutputStream(tmp.toFile()); var os = new DataOutputStream(new BufferedOS(fos))) {
+            List<DiskSegment> disk = new ArrayList<>();
+            for (Segment s : segments) {
+                if (s instanceof DiskSegment) {
+                    disk.add((DiskSegment) s);
+                }
+            }
+            os.writeInt(VERSION);
+            os.writeInt(disk.size());
+            for (DiskSegment ds : disk) {
+                os.writeUTF(ds.segmentName());
+                os.writeInt(ds.level);
+                byte[] lastKey = ds.lastKey();
+                if (lastKey == null) {
+                    os.writeInt(-1);
+                } else {
+                    os.writeInt(lastKey.length);
+                    os.write(lastKey);
+                }
+            }
+            os.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, Path.of(dbpath, FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,26 @@
+package com.robaho.jleveldb;
+
+import java.nio.ByteBuffer;
+
+/** the sorted key/value store of a memory segment, removed keys have an empty value. Writers of different keys may be concurrent. */
+interface MemTable {
+    void put(byte[] key, byte[] value);
+    /** @return the value, or null if the key is not present */
+    byte[] get(byte[] key);
+    /** copies the value into dst, @return the length of the value, or -1 if the key is not present */
+    int get(byte[] key, ByteBuffer dst);
+    /** @return a read-only view of the value, or null if the key is not present */
+    ByteBuffer getView(byte[] key);
+    /** @return the keys in the inclusive range, either bound may be null */
+    LookupIterator lookup(byte[] lower, byte[] upper);
+    Cursor cursor();
+    /** @return the memory used by the keys and values */
+    long size();
+
+    static MemTable newMemTable(Options options) {
+        // the arena orders keys by their bytes only
+        if(options.offHeapMemTable && options.userKeyCompare==null)
+            return new ArenaMemTable();
+        return new SkipListMemTable(options);
+    }
+}
@@ -69,13 +69,54 @@ public class MemoryMappedFile {
             ByteBuffer b = buffers[(int) (position / MAX_MAP_SIZE)];
             int offset = (int) (position % MAX_MAP_SIZE);
             int len = Math.min(n,b.capacity()-offset);
+            if(len<=0)
+                break; // end of file
             b.get(offset,dst,count,len);
+            position+=len;
             n-=len;
             count+=len;
         }
         return count;
     }
 
+    /** read n bytes of mapped file at position into dst at its current position, advancing the position */
+    public int readAt(ByteBuffer dst, long position, int n) throws IOException {
+        if(closed)
+            throw new IOException("memory mapped file is closed");
+
+        int count=0;
+        while(n>0) {
+            ByteBuffer b = buffers[(int) (position / MAX_MAP_SIZE)];
+            int offset = (int) (position % MAX_MAP_SIZE);
+            int len = Math.min(n,b.capacity()-offset);
+            if(len<=0)
+                break; // end of file
+            dst.put(b.duplicate().position(offset).limit(offset+len));
+            position+=len;
+            n-=len;
+            count+=len;
+        }
+        return count;
+    }
+
+    /**
+     * returns a read-only view of n bytes of the mapped file at position. The view is only valid until the file is closed.
+     * A range that crosses mappings is copied.
+     */
+    public ByteBuffer slice(long position, int n) throws IOException {
+        if(closed)
+            throw new IOException("memory mapped file is closed");
+
+        ByteBuffer b = buffers[(int) (position / MAX_MAP_SIZE)];
+        int offset = (int) (position % MAX_MAP_SIZE);
+        if(offset+n <= b.capacity()) {
+            return b.slice(offset,n);
+        }
+        ByteBuffer copy = ByteBuffer.allocate(n);
+        readAt(copy,position,n);
+        return copy.flip().asReadOnlyBuffer();
+    }
+
     public void close() throws IOException {
         for(ByteBuffer buffer : buffers) {
             UnsafeUtils.getUnsafe().invokeCleaner(buffer);
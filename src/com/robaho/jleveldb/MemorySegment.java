@@ -1,19 +1,19 @@
 package com.robaho.jleveldb;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 class MemorySegment implements Segment {
-    private ConcurrentSkipListMap<byte[],byte[]> list;
+    private final MemTable table;
     private LogFile log;
     private long id;
-    private int bytes;
     private String path;
-    private Options options;
+    final Options options;
 
     MemorySegment(String path,long id,Options options) {
-        list = new ConcurrentSkipListMap<>(KeyComparison.newKeyCompare(options));
+        table = MemTable.newMemTable(options);
         this.path = path;
         this.id = id;
         this.options = options;
@@ -29,7 +29,7 @@ class MemorySegment implements Segment {
         return id;
     }
 
-    public long size() { return bytes; }
+    public long size() { return table.size(); }
 
     private void maybeCreateLogFile() throws IOException {
         if(log!=null || path.equals(""))
@@ -42,8 +42,8 @@ class MemorySegment implements Segment {
         if(key==null || value==null)
             throw new IllegalArgumentException("null keys & values are not supported");
         maybeCreateLogFile();
-        var prev = list.put(key, value);
-        bytes += key.length + value.length - (prev!=null ? key.length + prev.length : 0);
+        var prev = table.get(key);
+        table.put(key, value);
         if(log!=null) {
             log.write(key,value);
         }
@@ -54,10 +54,34 @@ class MemorySegment implements Segment {
     public byte[] get(byte[] key) throws IOException {
         if(key==null)
             throw new IllegalArgumentException("null keys & values are not supported");
-        byte[] value = list.get(key);
-        if(value!=null && value.length==0)
-            return null;
-        return value;
+        // an empty value is returned for removed keys, so that older segments are not searched
+        return table.get(key);
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        if(key==null)
+            throw new IllegalArgumentException("null keys & values are not supported");
+        return table.get(key,dst);
+    }
+
+    @Override
+    public ByteBuffer getView(byte[] key) throws IOException {
+        if(key==null)
+            throw new IllegalArgumentException("null keys & values are not supported");
+        return table.getView(key);
+    }
+
+    static ByteBuffer viewValue(byte[] value) {
+        // values are never modified once added, so the array can be shared
+        return value==null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
+    }
+
+    static int copyValue(byte[] value, ByteBuffer dst) {
+        if(value==null)
+            return -1;
+        dst.put(value);
+        return value.length;
     }
 
     @Override
@@ -69,18 +93,24 @@ class MemorySegment implements Segment {
 
     public void write(WriteBatch batch) throws IOException {
         maybeCreateLogFile();
+        apply(batch);
         if(log!=null) {
-            log.startBatch(batch.entries.size());
-        }
-        for(KeyValue kv : batch.entries) {
-            byte[] prev = list.put(kv.key,kv.value);
-            bytes+= (kv.key.length)+(kv.value.length) - ((prev!=null) ? kv.key.length+prev.length:0);
-            if(log!=null) {
-                log.write(kv.key,kv.value);
-            }
+            log.write(batch);
         }
+    }
+
+    /** writes the batches to the log together, they must then be applied with apply() */
+    void writeLog(List<WriteBatch> batches) throws IOException {
+        maybeCreateLogFile();
         if(log!=null) {
-            log.endBatch(batch.entries.size());
+            log.writeGroup(batches);
+        }
+    }
+
+    /** adds the batch entries without logging them. Batches may be applied concurrently if they do not share keys. */
+    void apply(WriteBatch batch) {
+        for(var r = batch.reader(); r.next(); ) {
+            table.put(r.key(),r.value());
         }
     }
 
@@ -97,7 +127,12 @@ class MemorySegment implements Segment {
 
     @Override
     public LookupIterator lookup(byte[] lower, byte[] upper) throws IOException {
-        return getLookupIterator(lower, upper, list);
+        return table.lookup(lower, upper);
+    }
+
+    @Override
+    public Cursor cursor() throws IOException {
+        return table.cursor();
     }
 
     static LookupIterator getLookupIterator(byte[] lower, byte[] upper, ConcurrentSkipListMap<byte[], byte[]> list) {
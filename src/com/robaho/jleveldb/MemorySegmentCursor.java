@@ -0,0 +1,54 @@
+package com.robaho.jleveldb;
+
+import java.util.Map;
+import java.util.NavigableMap;
+
+/** cursor over the skip list of a memory or log segment, removed keys have an empty value */
+class MemorySegmentCursor implements Cursor {
+    private final NavigableMap<byte[],byte[]> map;
+    private Map.Entry<byte[],byte[]> entry;
+
+    MemorySegmentCursor(NavigableMap<byte[], byte[]> map) {
+        this.map = map;
+    }
+
+    @Override
+    public void seek(byte[] key) {
+        entry = map.ceilingEntry(key);
+    }
+
+    @Override
+    public void seekToFirst() {
+        entry = map.firstEntry();
+    }
+
+    @Override
+    public void seekToLast() {
+        entry = map.lastEntry();
+    }
+
+    @Override
+    public boolean valid() {
+        return entry!=null;
+    }
+
+    @Override
+    public void next() {
+        entry = map.higherEntry(entry.getKey());
+    }
+
+    @Override
+    public void prev() {
+        entry = map.lowerEntry(entry.getKey());
+    }
+
+    @Override
+    public byte[] key() {
+        return entry.getKey();
+    }
+
+    @Override
+    public byte[] value() {
+        return entry.getValue();
+    }
+}
@@ -1,131 +1,413 @@
 package com.robaho.jleveldb;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
 
 import static com.robaho.jleveldb.DiskIO.writeAndLoadSegment;
 
 class Merger {
-    static Thread mergerThread;
-    static void backgroundMerge(Database db) {
-        mergerThread = Thread.currentThread();
-
-        for(;;) {
-            db.lock();
-            if(!db.open || db.error != null) {
-                db.unlock();
-                return;
+    /**
+     * queues a background merge of the database if it has more than options.maxSegments segments, or a level of a
+     * leveled database exceeds its limit, and one is not already queued or running
+     */
+    static void scheduleMerge(Database db) {
+        if(db.options.disableAutoMerge || !db.open || db.error != null || db.mergeScheduled.get() || !needsMerge(db)) {
+            return;
+        }
+        if(!db.mergeScheduled.compareAndSet(false,true)) {
+            return;
+        }
+        db.wg.add(1);
+        BackgroundScheduler.shared.submit(new BackgroundScheduler.Job(false) {
+            @Override
+            public void run() {
+                try {
+                    if(db.open && db.error == null) {
+                        mergeSegments0(db, db.options.maxSegments, true);
+                    }
+                } catch (Exception e) {
+                    db.lock();
+                    db.error = e;
+                    db.unlock();
+                } finally {
+                    db.mergeScheduled.set(false);
+                    // segments may have been flushed during the merge, unless another merge is running that did not
+                    // finish, such as one requested by the application
+                    if(!db.inMerge.get()) {
+                        scheduleMerge(db);
+                    }
+                    db.wg.done();
+                }
             }
 
-            // the following prevents a Close from occurring while this
-            // routine is running
-
-            db.unlock();
+            @Override
+            double urgency() {
+                return Merger.urgency(db);
+            }
 
-            try {
-                mergeSegments0(db, Constants.maxSegments,true);
-            } catch (Exception e) {
-                db.lock();
-                db.error = e;
-                db.unlock();
+            @Override
+            boolean cancelled() {
+                return !db.open;
             }
+        });
+    }
 
-            LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+    static boolean needsMerge(Database db) {
+        var segments = db.state.segments;
+        if(db.manifest != null) {
+            return LeveledMerger.needsCompaction(segments, db.options);
         }
+        var disk = diskSegments(segments);
+        return segmentCount(disk) > db.options.maxSegments || pickRemovalRun(disk,List.of(),db.options.removalDensity)!=null;
     }
 
-    static void wakeupMerger() {
-        LockSupport.unpark(mergerThread);
+    /** @return the segment count relative to its limit, higher if writes are stalled waiting for the merge */
+    static double urgency(Database db) {
+        var disk = diskSegments(db.state.segments);
+        double urgency;
+        if(db.manifest != null) {
+            urgency = (double)LeveledMerger.levels(disk).get(0).size() / db.options.levelZeroSegments;
+        } else {
+            urgency = (double)segmentCount(disk) / db.options.maxSegments;
+        }
+        switch(db.writeController.stall()) {
+            case stop: return urgency + 100;
+            case slowdown: return urgency + 10;
+            default: return urgency;
+        }
     }
 
     static void mergeSegments0(Database db, int segmentCount, boolean throttle) throws IOException {
         if(!db.inMerge.compareAndSet(false,true))
             return;
         try {
-            mergeDiskSegments0Exclusive(db,segmentCount,throttle);
+            if(db.manifest!=null) {
+                // a leveled database is merged by level size rather than segment count, except to fully compact it
+                if(segmentCount==1) {
+                    LeveledMerger.mergeAll(db);
+                } else {
+                    LeveledMerger.mergeLevels(db,throttle);
+                }
+            } else {
+                mergeDiskSegments0Exclusive(db,segmentCount,throttle);
+            }
         } finally {
             db.inMerge.set(false);
         }
     }
 
     static void mergeDiskSegments0Exclusive(Database db,int segmentCount,boolean throttle) throws IOException {
-        // must hold the inMerge lock, only a single routine can be here
+        // must hold the inMerge lock, only a single routine can be here. Up to options.maxConcurrentMerges runs of
+        // adjacent segments are merged at once, the runs do not share segments so each merge replaces only its own run.
 
-        while(true) {
-            List<Segment> segments = db.state.segments;
+        // the runs being merged, and the first merge error, guarded by the database lock
+        var merging = new ArrayList<List<Segment>>();
+        var error = new AtomicReference<Exception>();
+        Condition mergeDone = db.db_lock.newCondition();
 
-            if (segments.size() <= segmentCount) {
-                return;
+        db.lock();
+        try {
+            while(true) {
+                List<Segment> run = null;
+                if(error.get()==null && merging.size() < Math.max(1,db.options.maxConcurrentMerges)) {
+                    // only disk segments are merged, memory and log segments are written to disk by the Flusher.
+                    // Segments are flushed oldest first, so the disk segments precede them.
+                    run = pickRun(diskSegments(db.state.segments),merging,segmentCount);
+                    if(run==null) {
+                        run = pickRemovalRun(diskSegments(db.state.segments),merging,db.options.removalDensity);
+                    }
+                }
+                if(run==null) {
+                    if(merging.isEmpty()) {
+                        break;
+                    }
+                    mergeDone.awaitUninterruptibly();
+                    continue;
+                }
+                merging.add(run);
+                final List<Segment> mergable = run;
+                // the segments older than the run, the removals of keys they cannot contain are omitted
+                final List<Segment> older = new ArrayList<>(db.state.segments.subList(0,db.state.segments.indexOf(run.get(0))));
+                BackgroundScheduler.workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Exception e = null;
+                        try {
+                            mergeRun(db,mergable,older,throttle);
+                        } catch (Exception e0) {
+                            e = e0;
+                        }
+                        db.lock();
+                        try {
+                            merging.remove(mergable);
+                            error.compareAndSet(null,e);
+                            mergeDone.signal();
+                        } finally {
+                            db.unlock();
+                        }
+                    }
+                });
             }
+        } finally {
+            db.unlock();
+        }
+
+        Exception e = error.get();
+        if(e instanceof IOException) {
+            throw (IOException)e;
+        } else if(e!=null) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static List<Segment> diskSegments(List<Segment> segments) {
+        int diskSegments = 0;
+        while (diskSegments < segments.size() && segments.get(diskSegments) instanceof DiskSegment) {
+            diskSegments++;
+        }
+        return segments.subList(0, diskSegments);
+    }
+
+    /**
+     * chooses the next run of adjacent segments to merge, starting at the smallest segment that is not being merged.
+     * The partitions of a split merge are merged together, and count as a single segment.
+     * @return null if the segment count, less the reduction from the runs being merged, is within segmentCount
+     */
+    static List<Segment> pickRun(List<Segment> segments, List<List<Segment>> merging, int segmentCount) {
+        Set<Segment> busy = Collections.newSetFromMap(new IdentityHashMap<>());
+        int pending = 0;
+        for(List<Segment> run : merging) {
+            busy.addAll(run);
+            pending += segmentCount(run)-1;
+        }
+        var groups = groups(segments);
+        if (groups.size() - pending <= segmentCount) {
+            return null;
+        }
 
 //            System.out.println("======= "+segments.size()+" segments");
 //            for(Segment s : segments) {
 //                System.out.println(""+s.lowerID()+","+s.upperID()+" = "+(s.size()/(1024*1024))+"M");
 //            }
 
-            int smallest = 0;
-            for(int i=1;i<segments.size();i++) {
-                if(segments.get(i).size() < segments.get(smallest).size()) {
-                    smallest=i;
-                }
+        // a segment can only be merged if an adjacent segment is also available
+        int smallest = -1;
+        for(int i=0;i<groups.size();i++) {
+            if(busy.contains(groups.get(i).get(0))) {
+                continue;
             }
-            if(smallest>0 && smallest==segments.size()-1) {
-                smallest--;
+            boolean next = i+1<groups.size() && !busy.contains(groups.get(i+1).get(0));
+            boolean prev = i>0 && !busy.contains(groups.get(i-1).get(0));
+            if(!next && !prev) {
+                continue;
             }
-
-            int index = smallest;
-
-            int maxMergeSize = segments.size() / 2;
-            if (maxMergeSize < 4) {
-                maxMergeSize = 4;
+            if(smallest<0 || size(groups.get(i)) < size(groups.get(smallest))) {
+                smallest=i;
             }
+        }
+        if(smallest<0) {
+            return null;
+        }
+        int index = smallest;
+        if(index+1==groups.size() || busy.contains(groups.get(index+1).get(0))) {
+            index--;
+        }
 
-            // ensure that only valid disk segments are merged
+        int maxMergeSize = groups.size() / 2;
+        if (maxMergeSize < 4) {
+            maxMergeSize = 4;
+        }
 
-            var mergable = new ArrayList<Segment>();
+        var run = new ArrayList<Segment>();
+        int count = 0;
+        for (List<Segment> group : groups.subList(index, groups.size())) {
+            if(busy.contains(group.get(0)) || count == maxMergeSize)
+                break;
+            run.addAll(group);
+            count++;
+        }
+        return run;
+    }
 
-            for (Segment s : segments.subList(index, segments.size())) {
-                mergable.add(s);
-                if (mergable.size() == maxMergeSize)
-                    break;
+    /**
+     * chooses a run to merge for the removals it contains: a segment, with the segment before it, where the removals
+     * in the segment are at least density of the keys of both, so the merge is likely to reclaim about that fraction
+     * of the keys. The oldest segment is merged alone, since all its removals are omitted. Segments whose counts are
+     * not yet known are not chosen.
+     * @return the run with the highest density, or null if none is at least density, or density is 0
+     */
+    static List<Segment> pickRemovalRun(List<Segment> segments, List<List<Segment>> merging, double density) {
+        if(density<=0) {
+            return null;
+        }
+        Set<Segment> busy = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(List<Segment> run : merging) {
+            busy.addAll(run);
+        }
+        var groups = groups(segments);
+        List<Segment> best = null;
+        double bestDensity = density;
+        for(int i=0;i<groups.size();i++) {
+            var group = groups.get(i);
+            var run = i==0 ? group : segments.subList(segments.indexOf(groups.get(i-1).get(0)),segments.indexOf(group.get(0))+group.size());
+            long removals = counts(group)[1];
+            long entries = counts(run)[0];
+            if(removals<=0 || entries<=0 || busy.contains(run.get(0)) || busy.contains(group.get(0))) {
+                continue;
             }
+            double d = (double)removals/entries;
+            if(d>=bestDensity) {
+                best = run;
+                bestDensity = d;
+            }
+        }
+        return best;
+    }
 
-            segments = segments.subList(index, index + mergable.size());
-
-            Segment newSegment = mergeSegments1(db.deleter, db.path, segments, index==0);
-            db.lock();
+    /**
+     * counts the keys and removals of the disk segments loaded at open in the background, since they are not stored
+     * with the segments, then schedules a merge if the removals of a segment warrant one, see pickRemovalRun
+     */
+    static void countRemovals(Database db) {
+        if(db.manifest!=null || db.options.removalDensity<=0) {
+            return;
+        }
+        db.wg.add(1);
+        BackgroundScheduler.workers.execute(() -> {
             try {
-                segments = db.state.segments;
-                for (int i = 0; i < mergable.size(); i++) {
-                    if (mergable.get(i) != segments.get(i + index)) {
-                        throw new IllegalStateException("unexpected segment change");
+                // a merged segment remains readable until it is no longer referenced
+                for(Segment s : diskSegments(db.state.segments)) {
+                    if(!db.open) {
+                        break;
                     }
+                    ((DiskSegment)s).countEntries();
                 }
-                for (Segment s : mergable) {
-                    s.removeOnFinalize();
-                }
-                var newSegments = new ArrayList<Segment>();
-                newSegments.addAll(segments.subList(0, index));
-                newSegments.add(newSegment);
-                newSegments.addAll(segments.subList(index + mergable.size(), segments.size()));
-                db.state = new DatabaseState(newSegments, db.state.memory, new MultiSegment(Segment.copyAndAppend(newSegments, db.state.memory)));
+            } catch (IOException ignore) {
+                // the segment is then only merged by count
             } finally {
-                db.unlock();
-                if(throttle) {
-                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                db.wg.done();
+            }
+            scheduleMerge(db);
+        });
+    }
+
+    /** @return the keys and removals in the segments, -1 if not known for any of them */
+    private static long[] counts(List<Segment> segments) {
+        long entries = 0, removals = 0;
+        for(Segment s : segments) {
+            DiskSegment ds = (DiskSegment)s;
+            if(ds.entries()<0) {
+                return new long[]{-1,-1};
+            }
+            entries += ds.entries();
+            removals += ds.removals();
+        }
+        return new long[]{entries,removals};
+    }
+
+    /** @return true if both segments are partitions of the same split merge */
+    static boolean samePartitioning(Segment a, Segment b) {
+        if(!(a instanceof DiskSegment) || !(b instanceof DiskSegment)) {
+            return false;
+        }
+        DiskSegment da = (DiskSegment)a, db = (DiskSegment)b;
+        return da.partitions>1 && da.partitions==db.partitions && da.lowerID==db.lowerID && da.upperID==db.upperID;
+    }
+
+    /** @return the segments with the partitions of each split merge grouped together */
+    static List<List<Segment>> groups(List<Segment> segments) {
+        var groups = new ArrayList<List<Segment>>();
+        for(int i=0;i<segments.size();) {
+            int end = i+1;
+            while(end<segments.size() && samePartitioning(segments.get(i),segments.get(end))) {
+                end++;
+            }
+            groups.add(segments.subList(i,end));
+            i = end;
+        }
+        return groups;
+    }
+
+    /** @return the number of segments, counting the partitions of a split merge as one */
+    static int segmentCount(List<Segment> segments) {
+        int count = 0;
+        for(int i=0;i<segments.size();i++) {
+            if(i==0 || !samePartitioning(segments.get(i-1),segments.get(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long size(List<Segment> segments) {
+        long size = 0;
+        for(Segment s : segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    /**
+     * merges the run and replaces it in the database state, the segments before and after it may have changed. The
+     * older segments may be merged meanwhile, but the merged segments contain no keys the older segments did not.
+     */
+    static void mergeRun(Database db,List<Segment> mergable,List<Segment> older,boolean throttle) throws IOException {
+        List<Segment> merged = mergeSegments(db.deleter, db.path, mergable, older, db.options);
+        db.lock();
+        try {
+            var segments = db.state.segments;
+            int index = segments.indexOf(mergable.get(0));
+            if (index < 0 || index + mergable.size() > segments.size() || !segments.subList(index, index + mergable.size()).equals(mergable)) {
+                throw new IllegalStateException("unexpected segment change");
+            }
+            for (Segment s : mergable) {
+                s.removeOnFinalize();
+                if(s instanceof DiskSegment) {
+                    ((DiskSegment)s).evictCached();
                 }
             }
+            var newSegments = new ArrayList<Segment>();
+            newSegments.addAll(segments.subList(0, index));
+            newSegments.addAll(merged);
+            newSegments.addAll(segments.subList(index + mergable.size(), segments.size()));
+            db.state = new DatabaseState(newSegments, db.state.memory, new MultiSegment(Segment.copyAndAppend(newSegments, db.state.memory)));
+        } finally {
+            db.unlock();
+            if(throttle) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+            }
         }
     }
 
     static Segment mergeSegments1(Deleter deleter,String dbpath,List<Segment> segments,boolean removeDeleted) throws IOException {
+        return mergeSegments1(deleter,dbpath,segments,removeDeleted,new Options());
+    }
+
+    static Segment mergeSegments1(Deleter deleter,String dbpath,List<Segment> segments,boolean removeDeleted,Options options) throws IOException {
+        return mergeSegments1(deleter,dbpath,segments,removeDeleted ? List.of() : null,options);
+    }
+
+    /** @param older the segments older than the merged segments, or null to keep all removals */
+    static Segment mergeSegments1(Deleter deleter,String dbpath,List<Segment> segments,List<Segment> older,Options options) throws IOException {
+        boolean removeDeleted = older!=null && older.isEmpty();
         long lowerId = segments.get(0).lowerID();
         long upperId = segments.get(segments.size()-1).upperID();
 
@@ -137,9 +419,384 @@ class Merger {
             files.addAll(s.files());
         }
         MultiSegment ms = new MultiSegment(segments);
-        LookupIterator itr = ms.lookup(null,null);
-        Segment seg = writeAndLoadSegment(keyFilename,dataFilename,itr,removeDeleted);
+        LookupIterator itr = omitRemovals(ms.lookup(null,null),older,options);
+        Segment seg = writeAndLoadSegment(keyFilename,dataFilename,itr,removeDeleted,options,options.compactionLimiter);
         deleter.scheduleDeletion(files);
         return seg;
     }
+
+    /**
+     * merges the segments, splitting a large merge into key ranges that are written in parallel, see
+     * options.maxSubcompactions. The partitions are named keys.lower.upper.partition.partitions, and are only
+     * loaded on open if all of them were written, so the split merge replaces the segments atomically.
+     * <p>
+     * The removals of keys that none of the older segments can contain are omitted, since there is no older value to
+     * hide, so all removals are omitted if there are no older segments.
+     * @param older the segments older than the merged segments, or null to keep all removals
+     * @return the merged segments in key order
+     */
+    static List<Segment> mergeSegments(Deleter deleter,String dbpath,List<Segment> segments,List<Segment> older,Options options) throws IOException {
+        if(options.targetSegmentBytes>0) {
+            return mergeSegmentsCapped(deleter,dbpath,segments,older,options);
+        }
+        List<byte[]> boundaries = partitionBoundaries(segments,options);
+        if(boundaries.isEmpty()) {
+            return List.of(mergeSegments1(deleter,dbpath,segments,older,options));
+        }
+        boolean removeDeleted = older!=null && older.isEmpty();
+        long lowerId = segments.get(0).lowerID();
+        long upperId = segments.get(segments.size()-1).upperID();
+        int partitions = boundaries.size()+1;
+
+        List<String> files = new LinkedList<>();
+        for(Segment s : segments) {
+            files.addAll(s.files());
+        }
+        MultiSegment ms = new MultiSegment(segments);
+        List<Callable<List<DiskSegment>>> tasks = new ArrayList<>();
+        for(int p=0;p<partitions;p++) {
+            byte[] lower = p==0 ? null : boundaries.get(p-1);
+            byte[] upper = p==partitions-1 ? null : boundaries.get(p);
+            String name = String.format("%d.%d.%d.%d",lowerId,upperId,p,partitions);
+            tasks.add(() -> {
+                var itr = new RangeIterator(omitRemovals(ms.lookup(lower,null),older,options),upper,removeDeleted);
+                DiskSegment ds = writeAndLoadSegment(dbpath+"/keys."+name,dbpath+"/data."+name,itr,removeDeleted,options,options.compactionLimiter);
+                ds.setLastKey(itr.lastKey);
+                return List.of(ds);
+            });
+        }
+        List<Segment> merged = new ArrayList<>(writePartitions(tasks));
+        deleter.scheduleDeletion(files);
+        return merged;
+    }
+
+    /**
+     * merges the segments into segments of about options.targetSegmentBytes, cut at key boundaries. The outputs are
+     * named as the partitions of a split merge, so they count as a single segment and replace the inputs atomically.
+     * <p>
+     * If the oldest input is such a group, its partitions that do not overlap the keys of the newer inputs are not
+     * rewritten, but linked into the output under its name, so merging a small segment into a large one only rewrites
+     * the partitions it overlaps. The outputs are written with a .tmp suffix, and renamed once all are written, since
+     * the number of partitions is only known then.
+     * @return the merged segments in key order
+     */
+    static List<Segment> mergeSegmentsCapped(Deleter deleter,String dbpath,List<Segment> segments,List<Segment> older,Options options) throws IOException {
+        boolean removeDeleted = older!=null && older.isEmpty();
+        long lowerId = segments.get(0).lowerID();
+        long upperId = segments.get(segments.size()-1).upperID();
+
+        List<String> files = new LinkedList<>();
+        for(Segment s : segments) {
+            files.addAll(s.files());
+        }
+
+        List<DiskSegment> before = new ArrayList<>();
+        List<DiskSegment> after = new ArrayList<>();
+        List<Segment> inputs = new ArrayList<>(segments);
+        List<Segment> oldest = groups(segments).get(0);
+        if(oldest.size()>1 && oldest.size()<segments.size()) {
+            List<Segment> newer = segments.subList(oldest.size(),segments.size());
+            byte[][] range = keyRange(newer);
+            inputs.clear();
+            for(Segment s : oldest) {
+                DiskSegment ds = (DiskSegment)s;
+                if(ds.firstKey()==null) {
+                    // an empty partition is dropped
+                } else if(range==null || Arrays.compare(ds.lastKey(),range[0])<0) {
+                    before.add(ds);
+                } else if(Arrays.compare(ds.firstKey(),range[1])>0) {
+                    after.add(ds);
+                } else {
+                    inputs.add(ds);
+                }
+            }
+            if(range!=null) {
+                inputs.addAll(newer);
+            }
+        }
+
+        List<DiskSegment> written = new ArrayList<>();
+        if(!inputs.isEmpty()) {
+            List<byte[]> boundaries = partitionBoundaries(inputs,options);
+            MultiSegment ms = new MultiSegment(inputs);
+            List<Callable<List<DiskSegment>>> tasks = new ArrayList<>();
+            for(int p=0;p<=boundaries.size();p++) {
+                byte[] lower = p==0 ? null : boundaries.get(p-1);
+                byte[] upper = p==boundaries.size() ? null : boundaries.get(p);
+                int task = p;
+                tasks.add(() -> {
+                    var itr = new LeveledMerger.LimitedIterator(new RangeIterator(omitRemovals(ms.lookup(lower,null),older,options),upper,false),removeDeleted,options.targetSegmentBytes);
+                    List<DiskSegment> outputs = new ArrayList<>();
+                    try {
+                        // a partition is written even if it is empty, so the merge has at least one output
+                        do {
+                            String name = String.format("%d.%d.%d.%d.tmp",lowerId,upperId,task,outputs.size());
+                            DiskSegment ds = writeAndLoadSegment(dbpath+"/keys."+name,dbpath+"/data."+name,itr,false,options,options.compactionLimiter);
+                            ds.setLastKey(itr.lastKey);
+                            outputs.add(ds);
+                            itr.nextSegment();
+                        } while(itr.peekKey()!=null);
+                    } catch (IOException e) {
+                        for(DiskSegment ds : outputs) {
+                            ds.removeSegment();
+                        }
+                        throw e;
+                    }
+                    return outputs;
+                });
+            }
+            written = writePartitions(tasks);
+        }
+
+        List<DiskSegment> outputs = new ArrayList<>(before);
+        outputs.addAll(written);
+        outputs.addAll(after);
+        List<Segment> merged = new ArrayList<>();
+        try {
+            for(int p=0;p<outputs.size();p++) {
+                String name = outputs.size()==1 ? String.format("%d.%d",lowerId,upperId) : String.format("%d.%d.%d.%d",lowerId,upperId,p,outputs.size());
+                DiskSegment ds = outputs.get(p);
+                merged.add(written.contains(ds) ? rename(dbpath,ds,name,options) : link(dbpath,ds,name,options));
+            }
+        } catch (IOException e) {
+            for(DiskSegment ds : written) {
+                ds.close();
+            }
+            for(Segment s : merged) {
+                s.removeSegment();
+            }
+            // the outputs that were not renamed are removed on open
+            throw e;
+        }
+        deleter.scheduleDeletion(files);
+        return merged;
+    }
+
+    /** @return the smallest and largest keys of the segments, or null if they are empty */
+    private static byte[][] keyRange(List<Segment> segments) throws IOException {
+        byte[][] range = null;
+        for(Segment s : segments) {
+            DiskSegment ds = (DiskSegment)s;
+            if(ds.firstKey()==null) {
+                continue;
+            }
+            if(range==null) {
+                range = new byte[][]{ds.firstKey(),ds.lastKey()};
+            } else {
+                if(Arrays.compare(ds.firstKey(),range[0])<0) {
+                    range[0] = ds.firstKey();
+                }
+                if(Arrays.compare(ds.lastKey(),range[1])>0) {
+                    range[1] = ds.lastKey();
+                }
+            }
+        }
+        return range;
+    }
+
+    private static final String[] segmentFiles = {"filter.","data.","keys."};
+
+    /** renames the files of a segment written with a .tmp suffix, the keys file last */
+    private static DiskSegment rename(String dbpath,DiskSegment ds,String name,Options options) throws IOException {
+        String from = ds.segmentName();
+        byte[] lastKey = ds.lastKey();
+        ds.close();
+        for(String prefix : segmentFiles) {
+            Path source = Path.of(dbpath,prefix+from);
+            if(Files.exists(source) || !prefix.equals("filter.")) {
+                Files.move(source,Path.of(dbpath,prefix+name));
+            }
+        }
+        var renamed = new DiskSegment(dbpath+"/keys."+name,dbpath+"/data."+name,ds.keyIndex,options);
+        renamed.setLastKey(lastKey);
+        renamed.setCounts(ds.entries(),ds.removals());
+        return renamed;
+    }
+
+    /**
+     * adds the files of an input segment under the output name, the keys file last. The input files are removed with
+     * the other inputs once the merge is complete, so they are linked rather than renamed, or copied if the file system
+     * does not support links.
+     */
+    private static DiskSegment link(String dbpath,DiskSegment ds,String name,Options options) throws IOException {
+        String from = ds.segmentName();
+        for(String prefix : segmentFiles) {
+            Path source = Path.of(dbpath,prefix+from);
+            if(!Files.exists(source) && prefix.equals("filter.")) {
+                continue;
+            }
+            Path target = Path.of(dbpath,prefix+name);
+            try {
+                Files.createLink(target,source);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(source,target,StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        var linked = new DiskSegment(dbpath+"/keys."+name,dbpath+"/data."+name,ds.keyIndex,options);
+        linked.setLastKey(ds.lastKey());
+        linked.setCounts(ds.entries(),ds.removals());
+        return linked;
+    }
+
+    /**
+     * chooses the keys that split a merge of the segments into key ranges of similar size. The candidates are the
+     * keys of the segment key indexes, which each start the same number of key blocks.
+     * @return the first key of each partition after the first, empty if the merge is not split
+     */
+    static List<byte[]> partitionBoundaries(List<? extends Segment> segments,Options options) {
+        long partitions = Math.min(options.maxSubcompactions,size(new ArrayList<>(segments))/Math.max(1,options.subcompactionMinBytes));
+        List<byte[]> candidates = new ArrayList<>();
+        for(Segment s : segments) {
+            if(s instanceof DiskSegment) {
+                candidates.addAll(((DiskSegment)s).keyIndex);
+            }
+        }
+        partitions = Math.min(partitions,candidates.size());
+        List<byte[]> boundaries = new ArrayList<>();
+        if(partitions<2) {
+            return boundaries;
+        }
+        candidates.sort(Arrays::compare);
+        byte[] prev = candidates.get(0);
+        for(int p=1;p<partitions;p++) {
+            byte[] boundary = candidates.get((int)(p*candidates.size()/partitions));
+            if(Arrays.compare(boundary,prev)>0) {
+                boundaries.add(boundary);
+                prev = boundary;
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * runs the tasks that write the partitions of a merge on separate threads
+     * @return the segments written by the tasks, in task order
+     */
+    static List<DiskSegment> writePartitions(List<Callable<List<DiskSegment>>> tasks) throws IOException {
+        List<FutureTask<List<DiskSegment>>> futures = new ArrayList<>();
+        for(var task : tasks.subList(1,tasks.size())) {
+            futures.add(BackgroundScheduler.fork(task));
+        }
+        List<DiskSegment> segments = new ArrayList<>();
+        Exception error = null;
+        try {
+            segments.addAll(tasks.get(0).call());
+        } catch (Exception e) {
+            error = e;
+        }
+        // all of the tasks are completed before returning, so a failed merge does not leave files being written
+        for(var future : futures) {
+            try {
+                future.run();
+                segments.addAll(future.get());
+            } catch (ExecutionException e) {
+                if(error==null) {
+                    error = (Exception)e.getCause();
+                }
+            } catch (InterruptedException e) {
+                if(error==null) {
+                    error = e;
+                }
+            }
+        }
+        if(error==null) {
+            return segments;
+        }
+        for(DiskSegment ds : segments) {
+            ds.removeSegment();
+        }
+        if(error instanceof IOException) {
+            throw (IOException)error;
+        }
+        throw new IllegalStateException(error);
+    }
+
+    /** @return the iterator, omitting the removals of keys that none of the older segments can contain */
+    static LookupIterator omitRemovals(LookupIterator itr,List<Segment> older,Options options) {
+        if(older==null || older.isEmpty()) {
+            return itr;
+        }
+        Comparator<byte[]> compare = KeyComparison.newKeyCompare(options);
+        return new LookupIterator() {
+            private KeyValue next;
+
+            @Override
+            public byte[] peekKey() throws IOException {
+                while(next==null) {
+                    next = itr.next();
+                    if(next==null) {
+                        return null;
+                    }
+                    if(next.value.length==0 && !olderMayContain(next.key)) {
+                        next = null;
+                    }
+                }
+                return next.key;
+            }
+
+            private boolean olderMayContain(byte[] key) throws IOException {
+                for(Segment s : older) {
+                    if(((DiskSegment)s).mayContain(key,compare)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            @Override
+            public KeyValue next() throws IOException {
+                if(peekKey()==null) {
+                    return null;
+                }
+                KeyValue kv = next;
+                next = null;
+                return kv;
+            }
+        };
+    }
+
+    /**
+     * returns the entries before the upper key, which is excluded so that it starts the next partition, omitting
+     * removed keys if requested
+     */
+    static class RangeIterator implements LookupIterator {
+        private final LookupIterator itr;
+        private final byte[] upper;
+        private final boolean removeDeleted;
+        private KeyValue next;
+        private boolean done;
+        // the last key returned
+        byte[] lastKey;
+
+        RangeIterator(LookupIterator itr, byte[] upper, boolean removeDeleted) {
+            this.itr = itr;
+            this.upper = upper;
+            this.removeDeleted = removeDeleted;
+        }
+
+        @Override
+        public byte[] peekKey() throws IOException {
+            while(next==null && !done) {
+                next = itr.next();
+                if(next==null || (upper!=null && Arrays.compare(next.key,upper)>=0)) {
+                    next = null;
+                    done = true;
+                } else if(removeDeleted && next.value.length==0) {
+                    next = null;
+                }
+            }
+            return next==null ? null : next.key;
+        }
+
+        @Override
+        public KeyValue next() throws IOException {
+            if(peekKey()==null) {
+                return null;
+            }
+            KeyValue kv = next;
+            next = null;
+            lastKey = kv.key;
+            return kv;
+        }
+    }
 }
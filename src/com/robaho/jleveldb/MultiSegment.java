@@ -1,16 +1,92 @@
 package com.robaho.jleveldb;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
 class MultiSegment implements Segment {
     private final List<Segment> segmentList;
+    // the segments searched by point lookups, a level of a leveled database is searched as one, see Level
+    private final Segment[] probes;
+    private final Level[] levels;
 
     public MultiSegment(List<Segment> segmentList) {
         this.segmentList=segmentList;
+        List<Segment> probes = new ArrayList<>();
+        List<Level> levels = new ArrayList<>();
+        for(int i=0;i<segmentList.size();) {
+            Segment s = segmentList.get(i);
+            int level = s instanceof DiskSegment ? ((DiskSegment)s).level : 0;
+            int end = i+1;
+            if(level>0) {
+                while(end<segmentList.size() && segmentList.get(end) instanceof DiskSegment && ((DiskSegment)segmentList.get(end)).level==level) {
+                    end++;
+                }
+            } else {
+                // the partitions of a split merge also have disjoint key ranges
+                while(end<segmentList.size() && Merger.samePartitioning(s,segmentList.get(end))) {
+                    end++;
+                }
+            }
+            if(end-i>1) {
+                probes.add(null);
+                levels.add(new Level(segmentList.subList(i,end)));
+            } else {
+                probes.add(s);
+                levels.add(null);
+            }
+            i = end;
+        }
+        this.probes = probes.toArray(new Segment[0]);
+        this.levels = levels.toArray(new Level[0]);
+    }
+
+    /**
+     * the segments of a level other than 0 have non-overlapping key ranges and are ordered by key, so only the segment
+     * whose range includes the key is searched
+     */
+    private static class Level {
+        private final DiskSegment[] segments;
+
+        Level(List<Segment> segments) {
+            // a partition of a split merge may be empty
+            List<DiskSegment> nonEmpty = new ArrayList<>();
+            for(Segment s : segments) {
+                if(s.size()>0) {
+                    nonEmpty.add((DiskSegment)s);
+                }
+            }
+            this.segments = nonEmpty.toArray(new DiskSegment[0]);
+        }
+
+        /** @return the segment that may contain the key, or null */
+        Segment find(byte[] key) throws IOException {
+            if(segments.length==0) {
+                return null;
+            }
+            int low = 0, high = segments.length-1;
+            while(low<high) {
+                int mid = (low+high)>>>1;
+                if(Arrays.compare(segments[mid].lastKey(),key)<0) {
+                    low = mid+1;
+                } else {
+                    high = mid;
+                }
+            }
+            DiskSegment ds = segments[low];
+            if(Arrays.compare(ds.firstKey(),key)>0 || Arrays.compare(ds.lastKey(),key)<0) {
+                return null;
+            }
+            return ds;
+        }
+    }
+
+    private Segment probe(int index, byte[] key) throws IOException {
+        return levels[index]==null ? probes[index] : levels[index].find(key);
     }
 
     @Override
@@ -21,8 +97,11 @@ class MultiSegment implements Segment {
     @Override
     public byte[] get(byte[] key) throws IOException {
         // segments are in chronological order, so search in reverse
-        for (int i = segmentList.size()-1; i >=0; i--) {
-            Segment s = segmentList.get(i);
+        for (int i = probes.length-1; i >=0; i--) {
+            Segment s = probe(i,key);
+            if (s==null) {
+                continue;
+            }
             byte[] val = s.get(key);
             if (val!=null) {
                 return val;
@@ -30,6 +109,37 @@ class MultiSegment implements Segment {
         }
         return null;
     }
+
+    @Override
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        for (int i = probes.length-1; i >=0; i--) {
+            Segment s = probe(i,key);
+            if (s==null) {
+                continue;
+            }
+            int len = s.get(key,dst);
+            if (len>=0) {
+                return len;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public ByteBuffer getView(byte[] key) throws IOException {
+        for (int i = probes.length-1; i >=0; i--) {
+            Segment s = probe(i,key);
+            if (s==null) {
+                continue;
+            }
+            ByteBuffer view = s.getView(key);
+            if (view!=null) {
+                return view;
+            }
+        }
+        return null;
+    }
+
     public long size() {
         long size = 0;
         for(Segment s : segmentList) {
@@ -69,6 +179,15 @@ class MultiSegment implements Segment {
         return new MultiSegmentIterator(iterators);
     }
 
+    @Override
+    public Cursor cursor() throws IOException {
+        var cursors = new ArrayList<Cursor>();
+        for (var v : segmentList) {
+            cursors.add(v.cursor());
+        }
+        return new MultiSegmentCursor(cursors);
+    }
+
     public long lowerID() {
         throw new RuntimeException("MultiSegment does not implement lowerID()");
     }
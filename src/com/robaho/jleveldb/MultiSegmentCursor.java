@@ -0,0 +1,120 @@
+package com.robaho.jleveldb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * merges the cursors of segments in chronological order, returning the value from the most recent segment for each
+ * key. Moving forward every child is positioned at the first key greater than or equal to the current key, moving
+ * backward at the last key less than or equal to it, so changing direction repositions the children. The number of
+ * segments is small, so the current key is found with a linear scan rather than a heap.
+ */
+class MultiSegmentCursor implements Cursor {
+    private final List<Cursor> cursors;
+    private boolean forward = true;
+    // the most recent cursor positioned at the current key, -1 if not valid
+    private int current = -1;
+
+    MultiSegmentCursor(List<Cursor> cursors) {
+        this.cursors = cursors;
+    }
+
+    @Override
+    public void seek(byte[] key) throws IOException {
+        for (Cursor c : cursors) {
+            c.seek(key);
+        }
+        forward = true;
+        findSmallest();
+    }
+
+    @Override
+    public void seekToFirst() throws IOException {
+        for (Cursor c : cursors) {
+            c.seekToFirst();
+        }
+        forward = true;
+        findSmallest();
+    }
+
+    @Override
+    public void seekToLast() throws IOException {
+        for (Cursor c : cursors) {
+            c.seekToLast();
+        }
+        forward = false;
+        findLargest();
+    }
+
+    @Override
+    public boolean valid() {
+        return current!=-1;
+    }
+
+    @Override
+    public void next() throws IOException {
+        byte[] key = key();
+        for (Cursor c : cursors) {
+            if (!forward) {
+                c.seek(key);
+            }
+            if (c.valid() && Arrays.compare(c.key(), key) == 0) {
+                c.next();
+            }
+        }
+        forward = true;
+        findSmallest();
+    }
+
+    @Override
+    public void prev() throws IOException {
+        byte[] key = key();
+        for (Cursor c : cursors) {
+            if (forward) {
+                // position at the last key less than the current key
+                c.seek(key);
+                if (c.valid()) {
+                    c.prev();
+                } else {
+                    c.seekToLast();
+                }
+            } else if (c.valid() && Arrays.compare(c.key(), key) == 0) {
+                c.prev();
+            }
+        }
+        forward = false;
+        findLargest();
+    }
+
+    @Override
+    public byte[] key() {
+        return cursors.get(current).key();
+    }
+
+    @Override
+    public byte[] value() throws IOException {
+        return cursors.get(current).value();
+    }
+
+    private void findSmallest() {
+        current = -1;
+        // in reverse so that the most recent segment is chosen for equal keys
+        for (int i = cursors.size() - 1; i >= 0; i--) {
+            Cursor c = cursors.get(i);
+            if (c.valid() && (current == -1 || Arrays.compare(c.key(), cursors.get(current).key()) < 0)) {
+                current = i;
+            }
+        }
+    }
+
+    private void findLargest() {
+        current = -1;
+        for (int i = cursors.size() - 1; i >= 0; i--) {
+            Cursor c = cursors.get(i);
+            if (c.valid() && (current == -1 || Arrays.compare(c.key(), cursors.get(current).key()) > 0)) {
+                current = i;
+            }
+        }
+    }
+}
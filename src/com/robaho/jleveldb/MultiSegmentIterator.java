@@ -4,10 +4,20 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
+/**
+ * merges the iterators of segments in chronological order. The iterators are kept in a binary heap ordered by their
+ * next key, with the most recent segment first for equal keys, so the entries a newer segment shadows are at the top
+ * of the heap after it is advanced.
+ */
 public class MultiSegmentIterator implements LookupIterator {
     private final List<LookupIterator> iterators;
+    // indexes of the iterators with remaining keys, heap[0] has the lowest key
+    private final int[] heap;
+    private int size = -1;
+
     public MultiSegmentIterator(List<LookupIterator> iterators) {
         this.iterators = iterators;
+        this.heap = new int[iterators.size()];
     }
 
     @Override
@@ -17,48 +27,74 @@ public class MultiSegmentIterator implements LookupIterator {
 
     @Override
     public KeyValue next() throws IOException {
-        int currentIndex = -1;
-        byte[] lowest = null;
-
-        // find the lowest next non-deleted key in any of the iterators
+        if(size == -1) {
+            size = 0;
+            for (int i = 0; i < iterators.size(); i++) {
+                if (iterators.get(i).peekKey() != null) {
+                    heap[size++] = i;
+                }
+            }
+            for (int i = size / 2 - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
 
-        for (int i = iterators.size()-1; i >= 0; i--) {
-            var iterator = iterators.get(i);
-            byte[] key = iterator.peekKey();
+        if (size == 0) {
+            return null;
+        }
 
-            if(key==null)
-                continue;
+        KeyValue kv = iterators.get(heap[0]).next();
+        advanced();
 
-           if (lowest == null || Arrays.compare(key, lowest)<0) { // needs to be < since we want the latest and we are traversing in reverse order
-                lowest = key.clone();
-                currentIndex = i;
+        // skip the older entries of the same key, which are now at the top of the heap
+        while (size > 0) {
+            var iterator = iterators.get(heap[0]);
+            if (Arrays.compare(iterator.peekKey(), kv.key) != 0) {
+                break;
             }
+            iterator.next();
+            advanced();
         }
 
-        if (currentIndex == -1) {
-            return null;
-        }
+        return kv;
+    }
 
-        KeyValue kv = iterators.get(currentIndex).next();
+    /** restores the heap after the top iterator is advanced */
+    private void advanced() throws IOException {
+        if (iterators.get(heap[0]).peekKey() == null) {
+            heap[0] = heap[--size];
+        }
+        siftDown(0);
+    }
 
-        // advance all of the iterators past the current
-        for(int i = iterators.size() - 1; i >= 0; i--) {
-            if(i == currentIndex) {
-                continue;
+    private void siftDown(int index) throws IOException {
+        int i = heap[index];
+        byte[] key = iterators.get(i).peekKey();
+        while (true) {
+            int child = index * 2 + 1;
+            if (child >= size) {
+                break;
             }
-            var iterator = iterators.get(i);
-            while(true) {
-                byte[] key = iterator.peekKey();
-                if(key==null)
-                    break;
-                if(Arrays.compare(key,lowest)<=0) { // need to use <= to advance past "old" entries
-                    iterator.next();
-                } else {
-                    break;
+            byte[] childKey = iterators.get(heap[child]).peekKey();
+            if (child + 1 < size) {
+                byte[] rightKey = iterators.get(heap[child + 1]).peekKey();
+                if (less(heap[child + 1], rightKey, heap[child], childKey)) {
+                    child++;
+                    childKey = rightKey;
                 }
             }
+            if (!less(heap[child], childKey, i, key)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
         }
+        heap[index] = i;
+    }
 
-        return kv;
+    /** orders by key, and then by recency so that the latest value of a key is returned */
+    private static boolean less(int i, byte[] iKey, int j, byte[] jKey) {
+        int result = Arrays.compare(iKey, jKey);
+        return result < 0 || (result == 0 && i > j);
     }
 }
@@ -14,8 +14,8 @@ public class Options implements Cloneable {
     // If this is true, the merging only occurs during Close().
     public boolean disableAutoMerge;
     // Maximum number of segments per database which controls the number of open files.
-    // If the number of segments exceeds 2x this value, producers are paused while the
-    // segments are merged.
+    // If the merges fall behind, writes are delayed at writeSlowdownSegments, and wait for
+    // the merges at writeStopSegments.
     public int maxSegments;
     // Maximum size of memory segment in bytes. Maximum memory usage per database is
     // roughly MaxSegments * MaxMemoryBytes but can be higher based on producer rate.
@@ -28,6 +28,68 @@ public class Options implements Cloneable {
     public BatchReadMode batchReadMode = BatchReadMode.discardPartial;
     // Key comparison function or nil to use standard bytes.Compare
     public Comparator<byte[]> userKeyCompare;
+    // Number of bits per key used by the bloom filter written with each disk segment.
+    // Point lookups skip segments whose filter excludes the key. If 0, no filters are written.
+    public int bloomFilterBitsPerKey = 10;
+    // Size in bytes of the cache of decoded key blocks shared by all segments of the database.
+    // If 0, key blocks are read from the mapped key file on every lookup.
+    public long blockCacheSize = 8 * 1024 * 1024;
+    // If true, the memory segment keys and values are stored in off-heap chunks rather than as heap arrays,
+    // which reduces garbage collection of large memory segments. Ignored if userKeyCompare is set.
+    public boolean offHeapMemTable;
+    // Maximum number of merges of separate runs of segments that run at once, when leveled compaction is not used.
+    // The runs of all databases share a fixed number of threads.
+    public int maxConcurrentMerges = 1;
+    // Maximum number of threads writing the output of a single merge. A large merge is split into key ranges that are
+    // written in parallel as separate segments with disjoint keys.
+    public int maxSubcompactions = 1;
+    // Minimum size in bytes of the merge input for each subcompaction, so that small merges are not split.
+    public long subcompactionMinBytes = 64 * 1024 * 1024;
+    // Size in bytes at which a merge starts a new output segment, so that a merge rewrites only the segments that
+    // overlap the keys of the newer segments it merges, rather than a single segment of the whole database. The
+    // outputs of a merge count as one segment. If 0, a merge writes a single segment. Leveled compaction uses
+    // levelSegmentBytes instead.
+    public long targetSegmentBytes;
+    // Fraction of removed keys in a segment, relative to the keys of it and the segment before it, at which the two
+    // are merged so the removed keys are reclaimed, even if the segment count is within maxSegments. The counts of the
+    // segments loaded at open are read in the background. If 0, the default, segments are only merged by count, 0.5
+    // is a reasonable value. Leveled compaction omits removals when no deeper level overlaps them instead.
+    public double removalDensity;
+    // Maximum bytes per second written by merges, so that merging does not starve foreground reads and flushes of
+    // disk bandwidth. Flushes of memory segments are not limited. If 0, merges are not limited.
+    // The rate can be changed while the database is open with Database.setCompactionRate().
+    public long compactionBytesPerSecond;
+    // Number of segments, or level 0 segments with leveled compaction, at which each write is delayed, increasingly
+    // up to writeStopSegments where writes wait for the merge to catch up. If 0, 3x maxSegments or 2x levelZeroSegments.
+    public int writeSlowdownSegments;
+    // If not above writeSlowdownSegments, 5/3 of writeSlowdownSegments.
+    public int writeStopSegments;
+    // Bytes of memory segments waiting to be written to disk at which writes are delayed. If 0, 4x maxMemoryBytes.
+    public long writeSlowdownUnflushedBytes;
+    // If not above writeSlowdownUnflushedBytes, 2x writeSlowdownUnflushedBytes.
+    public long writeStopUnflushedBytes;
+    // Estimated bytes of segments waiting to be merged at which writes are delayed.
+    public long writeSlowdownPendingBytes = 64L * 1024 * 1024 * 1024;
+    // If not above writeSlowdownPendingBytes, 4x writeSlowdownPendingBytes.
+    public long writeStopPendingBytes = 256L * 1024 * 1024 * 1024;
+    // If set, limits the memory used by the memory segments of all databases sharing the manager. The largest memory
+    // segments are written to disk early when the limit is approached, and writes stop while it is exceeded.
+    public WriteBufferManager writeBufferManager;
+    // If true, the disk segments are organized in levels. Level 0 holds the flushed memory segments, and each
+    // deeper level holds segments with non-overlapping key ranges, so a lookup reads at most one segment per level.
+    // A database created with leveled compaction always uses it, and an existing database is converted on open.
+    public boolean leveledCompaction;
+    // Number of level 0 segments that triggers their compaction into level 1.
+    public int levelZeroSegments = 4;
+    // Maximum size in bytes of level 1, each deeper level is 10x larger.
+    public long levelOneBytes = 10 * 1024 * 1024;
+    // Size in bytes at which a leveled compaction starts a new output segment.
+    public long levelSegmentBytes = 2 * 1024 * 1024;
+
+    // created on open from blockCacheSize
+    BlockCache blockCache;
+    // created on open from compactionBytesPerSecond
+    RateLimiter compactionLimiter;
 
     public Options clone() {
         try {
@@ -0,0 +1,54 @@
+package com.robaho.jleveldb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * token bucket that limits the bytes written per second by merges, so that background merging does not saturate the
+ * disk used by foreground reads and flushes. Up to 100ms of tokens accumulate while idle. A request larger than the
+ * available tokens is granted, and the caller waits until the bucket has refilled the deficit.
+ */
+class RateLimiter {
+    private static final long refillPeriod = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // 0 if unlimited
+    private volatile long bytesPerSecond;
+    // guarded by this, negative if callers are waiting
+    private double available;
+    private long lastRefill = System.nanoTime();
+
+    RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** changes the rate, waiting callers are not affected. A rate of 0 disables the limit. */
+    void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    long getRate() {
+        return bytesPerSecond;
+    }
+
+    /** waits until the bytes may be written */
+    void acquire(long bytes) {
+        long rate = bytesPerSecond;
+        if(rate<=0) {
+            return;
+        }
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            double burst = (double)rate * refillPeriod / TimeUnit.SECONDS.toNanos(1);
+            available = Math.min(burst, available + (double)rate * (now - lastRefill) / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            available -= bytes;
+            waitNanos = available < 0 ? (long)(-available * TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        }
+        long deadline = System.nanoTime() + waitNanos;
+        while(waitNanos>0) {
+            LockSupport.parkNanos(waitNanos);
+            waitNanos = deadline - System.nanoTime();
+        }
+    }
+}
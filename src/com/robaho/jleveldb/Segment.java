@@ -1,6 +1,7 @@
 package com.robaho.jleveldb;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -10,9 +11,21 @@ interface Segment {
     long lowerID();
     byte[] put(byte[] key,byte[] value) throws IOException;
     byte[] get(byte[] key) throws IOException;
+    /**
+     * copies the value into dst at its current position, without allocating
+     * @return the value length, 0 if the key is removed in this segment, or -1 if the key is not in the segment
+     */
+    int get(byte[] key, ByteBuffer dst) throws IOException;
+    /**
+     * returns the value without copying it where possible. Views of disk segments are backed by the mapped data file.
+     * @return a read-only view of the value, an empty buffer if the key is removed in this segment, or null if the key is not in the segment
+     */
+    ByteBuffer getView(byte[] key) throws IOException;
     byte[] remove(byte[] key) throws IOException;
     void close() throws IOException;
     LookupIterator lookup(byte[] lower,byte[] upper) throws IOException;
+    /** @return a cursor over the segment, removed keys have an empty value */
+    Cursor cursor() throws IOException;
     static List<Segment> copyAndAppend(List<Segment> list, Segment segment) {
         List<Segment> copy = new ArrayList<>(list.size()+1);
         copy.addAll(list);
@@ -0,0 +1,100 @@
+package com.robaho.jleveldb;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Comparator;
+
+/**
+ * writes keys in sorted order to the files of a disk segment, keys.name, data.name and filter.name in the directory,
+ * which are then added to a database with Database.ingestFiles(). A segment can be written without opening the
+ * database, such as on another machine, and copied to it. The options must use the same key comparison and bloom
+ * filter settings as the database.
+ * <p>
+ * The files have a .tmp suffix until finish(), so an incomplete segment is not mistaken for a complete one. If the
+ * writer is closed before finish(), the files are removed.
+ */
+public class SegmentWriter implements Closeable {
+    private final File keyFile;
+    private final File dataFile;
+    private final File filterFile;
+    private final DiskIO.SegmentFileWriter w;
+    private final Comparator<byte[]> compare;
+    private byte[] lastKey;
+    private long count;
+    private boolean finished;
+
+    public SegmentWriter(String directory, String name, Options options) throws IOException {
+        keyFile = new File(directory, "keys." + name);
+        dataFile = new File(directory, "data." + name);
+        filterFile = new File(directory, "filter." + name);
+        compare = KeyComparison.newKeyCompare(options);
+        w = new DiskIO.SegmentFileWriter(tmp(keyFile), tmp(dataFile), tmp(filterFile), options.bloomFilterBitsPerKey, null);
+    }
+
+    private static File tmp(File file) {
+        return new File(file.getPath() + ".tmp");
+    }
+
+    /** adds the key, which must be greater than the keys already added */
+    public void put(byte[] key, byte[] value) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("segment already finished");
+        }
+        if (key.length == 0 || key.length > 1024) {
+            throw new IOException("invalid key length");
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("null keys & values are not supported");
+        }
+        if (lastKey != null && compare.compare(lastKey, key) >= 0) {
+            throw new IOException("keys must be added in increasing order");
+        }
+        w.add(key, value);
+        lastKey = key.clone();
+        count++;
+    }
+
+    /** adds a removal of the key, which hides the key in older segments of the database */
+    public void remove(byte[] key) throws IOException {
+        put(key, KeyValue.EMPTY);
+    }
+
+    /** @return the number of keys added */
+    public long count() {
+        return count;
+    }
+
+    /** completes the files, @return the path of the keys file, which identifies the segment to ingest */
+    public String finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("segment already finished");
+        }
+        w.finish();
+        finished = true;
+        // the keys file is renamed last, so that it is never present without the other files
+        if (tmp(filterFile).exists()) {
+            rename(tmp(filterFile), filterFile);
+        }
+        rename(tmp(dataFile), dataFile);
+        rename(tmp(keyFile), keyFile);
+        return keyFile.getPath();
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("unable to rename " + from + " to " + to);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!finished) {
+            finished = true;
+            w.close();
+            tmp(keyFile).delete();
+            tmp(dataFile).delete();
+            tmp(filterFile).delete();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.robaho.jleveldb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** memory table holding the key and value arrays on the heap */
+class SkipListMemTable implements MemTable {
+    private final ConcurrentSkipListMap<byte[],byte[]> list;
+    // batches of a write group are applied concurrently
+    private final LongAdder bytes = new LongAdder();
+
+    SkipListMemTable(Options options) {
+        list = new ConcurrentSkipListMap<>(KeyComparison.newKeyCompare(options));
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        var prev = list.put(key, value);
+        bytes.add(key.length + value.length - (prev!=null ? key.length + prev.length : 0));
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return list.get(key);
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer dst) {
+        return MemorySegment.copyValue(list.get(key),dst);
+    }
+
+    @Override
+    public ByteBuffer getView(byte[] key) {
+        return MemorySegment.viewValue(list.get(key));
+    }
+
+    @Override
+    public LookupIterator lookup(byte[] lower, byte[] upper) {
+        return MemorySegment.getLookupIterator(lower,upper,list);
+    }
+
+    @Override
+    public Cursor cursor() {
+        return new MemorySegmentCursor(list);
+    }
+
+    @Override
+    public long size() {
+        return bytes.sum();
+    }
+}
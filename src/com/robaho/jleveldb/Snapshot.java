@@ -1,11 +1,23 @@
 package com.robaho.jleveldb;
 
+import com.robaho.jleveldb.exceptions.DatabaseClosedException;
+
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
-/** read-only snapshot of the database at a moment in time */
-public class Snapshot {
+/**
+ * read-only snapshot of the database at a moment in time.
+ *
+ * Segments replaced by a merge are normally removed once no snapshot references them. A snapshot that has returned
+ * a view with getView() pins its segments until it is closed, so that the views remain valid even if the snapshot
+ * itself is no longer referenced.
+ */
+public class Snapshot implements Closeable {
     final Database db;
     final MultiSegment multi;
+    private boolean pinned;
+    private volatile boolean closed;
 
     Snapshot(Database db,MultiSegment multi) {
         this.db = db;
@@ -19,9 +31,52 @@ public class Snapshot {
         }
         return value;
     }
+    /**
+     * copies the value into dst at its current position. This does not allocate, so it is suitable for high rate lookups.
+     * @return the length of the value, or -1 if the key does not exist
+     * @throws java.nio.BufferOverflowException if the value is larger than dst.remaining(), dst is unchanged
+     */
+    public int get(byte[] key, ByteBuffer dst) throws IOException {
+        int len = multi.get(key,dst);
+        return len==0 ? -1 : len;
+    }
+    /**
+     * returns a read-only view of the value without copying it. Values in disk segments are backed by the mapped
+     * data file, so the view must not be used after this snapshot or the database is closed.
+     * @return the value, or null if the key does not exist
+     */
+    public ByteBuffer getView(byte[] key) throws IOException {
+        if(!db.open)
+            throw new DatabaseClosedException();
+        pin();
+        ByteBuffer value = multi.getView(key);
+        if(value!=null && value.remaining()==0) {
+            return null;
+        }
+        return value;
+    }
+    private synchronized void pin() {
+        if(closed)
+            throw new IllegalStateException("snapshot is closed");
+        if(!pinned) {
+            db.pinned.add(this);
+            pinned = true;
+        }
+    }
     public LookupIterator lookup(byte[] lower,byte[] higher) throws IOException {
         return db.newDatabaseLookup(multi.lookup(lower,higher));
     }
+    /** @return a cursor that can move forward and backward through the keys of the snapshot, it must be positioned before use */
+    public Cursor cursor() throws IOException {
+        return db.newDatabaseCursor(multi.cursor());
+    }
+    /** releases the segments pinned by this snapshot, any views returned by getView() are no longer valid */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if(pinned) {
+            db.pinned.remove(this);
+            pinned = false;
+        }
+    }
 }
-
-
@@ -1,6 +1,20 @@
 package com.robaho.jleveldb;
 
 public class Statistics {
+    public static enum WriteStall {
+        none,
+        slowdown,
+        stop
+    };
     public int numberOfSegments;
     public int blockScans;
+    public long blockCacheHits;
+    public long blockCacheMisses;
+    // snapshots with value views that have not been closed
+    public int pinnedSnapshots;
+    // whether writes are currently delayed or stopped while flushing or merging catches up
+    public WriteStall writeStall;
+    // writes that were delayed or stopped, and the total time they waited
+    public long stalledWrites;
+    public long writeStallNanos;
 }
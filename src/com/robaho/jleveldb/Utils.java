@@ -41,6 +41,17 @@ public class Utils {
         ids[1] = Long.parseLong(segs[2]);
         return ids;
     }
+    /**
+     * the output segments of a split merge are named keys.lower.upper.partition.partitions
+     * @return the partition and the number of partitions, or {0,1} if the segment is not a partition
+     */
+    static int[] getPartition(String filename) {
+        String[] segs = filename.split("\\.");
+        if(segs.length<5) {
+            return new int[]{0,1};
+        }
+        return new int[]{Integer.parseInt(segs[3]),Integer.parseInt(segs[4])};
+    }
 
     public static String getFileName(String filepath) {
         return Path.of(filepath).getFileName().toString();
@@ -1,14 +1,146 @@
 package com.robaho.jleveldb;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+/**
+ * a set of writes applied atomically. The entries are encoded into a single buffer of [int count] followed by
+ * [int key length][key][int value length][value] for each entry, which is the format of a log record, so the batch is
+ * logged with a single write. A removed key has an empty value. The batch can be reused after clear(), so that writing
+ * batches in a loop does not allocate once the buffer has grown to the batch size.
+ */
 public class WriteBatch {
-    List<KeyValue> entries = new ArrayList<>();
+    static final int HEADER_SIZE = 4;
+
+    byte[] data;
+    int length = HEADER_SIZE;
+    private int count;
+
+    public WriteBatch() {
+        this(256);
+    }
+    /** @param capacity the initial size of the buffer in bytes */
+    public WriteBatch(int capacity) {
+        data = new byte[Math.max(HEADER_SIZE,capacity)];
+    }
+
     public void put(byte[] key,byte[] value) {
-        entries.add(new KeyValue(key,value));
+        add(key,value);
     }
     public void remove(byte[] key){
-        entries.add(new KeyValue(key));
+        add(key,KeyValue.EMPTY);
+    }
+    /** removes all entries, the buffer is retained */
+    public void clear() {
+        length = HEADER_SIZE;
+        setCount(0);
+    }
+    /** @return the number of entries */
+    public int count() {
+        return count;
+    }
+    /** @return the encoded size of the batch in bytes */
+    public int size() {
+        return length;
+    }
+
+    /** appends the entries of the other batch, so both are written as a single batch */
+    void append(WriteBatch other) {
+        int len = other.length - HEADER_SIZE;
+        ensureCapacity(len);
+        System.arraycopy(other.data,HEADER_SIZE,data,length,len);
+        length += len;
+        setCount(count + other.count);
+    }
+
+    private void add(byte[] key,byte[] value) {
+        ensureCapacity(8 + key.length + value.length);
+        putInt(length,key.length);
+        System.arraycopy(key,0,data,length+4,key.length);
+        length += 4 + key.length;
+        putInt(length,value.length);
+        System.arraycopy(value,0,data,length+4,value.length);
+        length += 4 + value.length;
+        setCount(count + 1);
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        putInt(0,count);
+    }
+
+    private void ensureCapacity(int len) {
+        if(length + len > data.length) {
+            data = Arrays.copyOf(data,Math.max(data.length*2,length+len));
+        }
+    }
+
+    private void putInt(int offset,int value) {
+        data[offset] = (byte)(value>>>24);
+        data[offset+1] = (byte)(value>>>16);
+        data[offset+2] = (byte)(value>>>8);
+        data[offset+3] = (byte)value;
+    }
+
+    private static int getInt(byte[] data,int offset) {
+        return ((data[offset] & 0xFF)<<24) | ((data[offset+1] & 0xFF)<<16) | ((data[offset+2] & 0xFF)<<8) | (data[offset+3] & 0xFF);
+    }
+
+    Reader reader() {
+        return new Reader(data,length);
+    }
+
+    /** decodes the entries of an encoded batch, such as a log record, without copying until key() or value() */
+    static final class Reader {
+        private final byte[] data;
+        private final int length;
+        private int remaining;
+        private int position = HEADER_SIZE;
+        int keyOffset,keyLength,valueOffset,valueLength;
+
+        Reader(byte[] data,int length) {
+            this.data = data;
+            this.length = length;
+            this.remaining = length < HEADER_SIZE ? 0 : getInt(data,0);
+        }
+
+        /**
+         * moves to the next entry
+         * @return false if there are no more entries
+         * @throws IllegalStateException if the encoding is invalid
+         */
+        boolean next() {
+            if(remaining==0) {
+                return false;
+            }
+            keyOffset = position + 4;
+            keyLength = checkLength(position);
+            position = keyOffset + keyLength;
+            valueOffset = position + 4;
+            valueLength = checkLength(position);
+            position = valueOffset + valueLength;
+            remaining--;
+            return true;
+        }
+
+        private int checkLength(int offset) {
+            if(offset + 4 > length) {
+                throw new IllegalStateException("invalid batch encoding");
+            }
+            int len = getInt(data,offset);
+            if(len < 0 || offset + 4 + len > length) {
+                throw new IllegalStateException("invalid batch encoding");
+            }
+            return len;
+        }
+
+        byte[] data() {
+            return data;
+        }
+        byte[] key() {
+            return Arrays.copyOfRange(data,keyOffset,keyOffset+keyLength);
+        }
+        byte[] value() {
+            return valueLength==0 ? KeyValue.EMPTY : Arrays.copyOfRange(data,valueOffset,valueOffset+valueLength);
+        }
     }
 }
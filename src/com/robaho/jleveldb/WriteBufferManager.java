@@ -0,0 +1,130 @@
+package com.robaho.jleveldb;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * limits the memory used by the memory segments of all databases that share it through Options.writeBufferManager,
+ * so that the heap used by many databases in a process is bounded, rather than up to maxMemoryBytes plus the segments
+ * waiting to be written to disk for each database.
+ * <p>
+ * When the memory segments being written exceed 7/8 of the buffer size, or all memory segments including those
+ * waiting to be written to disk exceed the buffer size and half of it is being written, the largest memory segment is
+ * rotated so that it is written to disk early. Writes to all of the databases are stopped while the memory segments
+ * exceed the buffer size, until writing to disk catches up.
+ * <p>
+ * The memory used is recomputed from the database states at most every millisecond, so it may be exceeded by the
+ * writes during that time.
+ */
+public class WriteBufferManager {
+    private static final long refreshNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final long bufferSize;
+    private final Set<Database> databases = ConcurrentHashMap.newKeySet();
+    // databases with a rotation queued, so a rotation is not repeated before the usage reflects it
+    private final Set<Database> rotating = ConcurrentHashMap.newKeySet();
+
+    private static class Usage {
+        final long time;
+        // the bytes of the memory segments being written
+        final long mutable;
+        // including the memory and log segments waiting to be written to disk
+        final long total;
+        final Database largest;
+
+        Usage(long time, long mutable, long total, Database largest) {
+            this.time = time;
+            this.mutable = mutable;
+            this.total = total;
+            this.largest = largest;
+        }
+    }
+
+    private volatile Usage usage;
+
+    /** @param bufferSize the maximum bytes of the memory segments of all databases using the manager */
+    public WriteBufferManager(long bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("buffer size must be positive");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    public long getBufferSize() {
+        return bufferSize;
+    }
+
+    /** @return the bytes of the memory segments of all databases, including those waiting to be written to disk */
+    public long getMemoryUsage() {
+        return compute().total;
+    }
+
+    void register(Database db) {
+        databases.add(db);
+        usage = null;
+    }
+
+    void unregister(Database db) {
+        databases.remove(db);
+        rotating.remove(db);
+        usage = null;
+    }
+
+    private Usage usage() {
+        Usage u = usage;
+        if (u == null || System.nanoTime() - u.time > refreshNanos) {
+            u = compute();
+            usage = u;
+        }
+        return u;
+    }
+
+    private Usage compute() {
+        long mutable = 0;
+        long total = 0;
+        Database largest = null;
+        long largestBytes = 0;
+        for (Database db : databases) {
+            DatabaseState state = db.state;
+            // a database whose flush failed keeps its memory segments until closed, so it would stall the others
+            if (state.memory == null || !db.open || db.error != null) {
+                continue;
+            }
+            long bytes = state.memory.size();
+            mutable += bytes;
+            total += bytes + WriteController.unflushedBytes(state.segments);
+            if (bytes > largestBytes && !rotating.contains(db)) {
+                largest = db;
+                largestBytes = bytes;
+            }
+        }
+        return new Usage(System.nanoTime(), mutable, total, largest);
+    }
+
+    /** rotates the largest memory segment in the background if the memory used is above the limits */
+    void maybeFlush() {
+        Usage u = usage();
+        boolean flush = u.mutable > bufferSize / 8 * 7 || (u.total >= bufferSize && u.mutable >= bufferSize / 2);
+        if (!flush || u.largest == null) {
+            return;
+        }
+        Database db = u.largest;
+        if (!rotating.add(db)) {
+            return;
+        }
+        Database.executor.execute(() -> {
+            try {
+                db.rotateMemory();
+            } finally {
+                rotating.remove(db);
+                usage = null;
+            }
+        });
+    }
+
+    /** @return true if writes should wait for the memory segments to be written to disk */
+    boolean shouldStall() {
+        return usage().total >= bufferSize;
+    }
+}
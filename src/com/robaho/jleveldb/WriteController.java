@@ -0,0 +1,207 @@
+package com.robaho.jleveldb;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * delays writes when flushing or merging falls behind, so that the segments and the memory segments waiting to be
+ * flushed do not grow without limit. Writes are delayed progressively once a measure exceeds its slowdown threshold,
+ * up to maxDelay per write as it approaches its stop threshold, and are stopped at the stop threshold until the
+ * background flush or merge catches up.
+ * <p>
+ * The measures are the number of segments (level 0 segments for a leveled database), the bytes of the memory and log
+ * segments not yet written to disk, and an estimate of the bytes that must be merged. The segment and merge measures
+ * are only used if the database merges automatically.
+ * <p>
+ * Writes are also stopped while the databases sharing a WriteBufferManager exceed its buffer size.
+ */
+class WriteController {
+    private static final long maxDelay = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long stopPoll = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Database db;
+    final LongAdder stalledWrites = new LongAdder();
+    final LongAdder stallNanos = new LongAdder();
+
+    private static class Pressure {
+        final DatabaseState state;
+        final Statistics.WriteStall stall;
+        // from 0 at the slowdown threshold to 1 at the stop threshold
+        final double level;
+
+        Pressure(DatabaseState state, Statistics.WriteStall stall, double level) {
+            this.state = state;
+            this.stall = stall;
+            this.level = level;
+        }
+    }
+
+    // computed for the last database state seen, states are immutable so it is only recomputed when the state changes
+    private volatile Pressure last;
+
+    WriteController(Database db) {
+        this.db = db;
+    }
+
+    /** sets the thresholds that were not configured, relative to the segment limits. Called on open. */
+    static void setDefaults(Options options) {
+        if(options.writeSlowdownSegments <= 0) {
+            options.writeSlowdownSegments = options.leveledCompaction ? 2 * options.levelZeroSegments : 3 * options.maxSegments;
+        }
+        if(options.writeStopSegments <= options.writeSlowdownSegments) {
+            options.writeStopSegments = options.writeSlowdownSegments * 5 / 3;
+        }
+        if(options.writeSlowdownUnflushedBytes <= 0) {
+            options.writeSlowdownUnflushedBytes = 4L * options.maxMemoryBytes;
+        }
+        if(options.writeStopUnflushedBytes <= options.writeSlowdownUnflushedBytes) {
+            options.writeStopUnflushedBytes = 2 * options.writeSlowdownUnflushedBytes;
+        }
+        if(options.writeStopPendingBytes <= options.writeSlowdownPendingBytes) {
+            options.writeStopPendingBytes = 4 * options.writeSlowdownPendingBytes;
+        }
+    }
+
+    Statistics.WriteStall stall() {
+        DatabaseState state = db.state;
+        if(state.memory == null) {
+            return Statistics.WriteStall.none;
+        }
+        WriteBufferManager manager = db.options.writeBufferManager;
+        if(manager != null && manager.shouldStall()) {
+            return Statistics.WriteStall.stop;
+        }
+        return pressure(state).stall;
+    }
+
+    /** delays the caller if writes are slowed down or stopped. Must not hold the database lock. */
+    void maybeDelay() {
+        DatabaseState state = db.state;
+        if(state.memory == null) {
+            return;
+        }
+        WriteBufferManager manager = db.options.writeBufferManager;
+        if(manager != null) {
+            manager.maybeFlush();
+            if(manager.shouldStall()) {
+                waitForManager(manager);
+            }
+        }
+        Pressure p = pressure(state);
+        if(p.stall == Statistics.WriteStall.none) {
+            return;
+        }
+        long start = System.nanoTime();
+        if(p.stall == Statistics.WriteStall.slowdown) {
+            LockSupport.parkNanos((long) (maxDelay * p.level));
+        } else {
+            while(db.open && db.error == null) {
+                state = db.state;
+                if(state.memory == null || pressure(state).stall != Statistics.WriteStall.stop) {
+                    break;
+                }
+                Merger.scheduleMerge(db);
+                LockSupport.parkNanos(stopPoll);
+            }
+        }
+        stalledWrites.increment();
+        stallNanos.add(System.nanoTime() - start);
+    }
+
+    /** waits while the memory segments of the databases sharing the manager exceed its buffer size */
+    private void waitForManager(WriteBufferManager manager) {
+        long start = System.nanoTime();
+        while(db.open && db.error == null && manager.shouldStall()) {
+            manager.maybeFlush();
+            LockSupport.parkNanos(stopPoll);
+        }
+        stalledWrites.increment();
+        stallNanos.add(System.nanoTime() - start);
+    }
+
+    private Pressure pressure(DatabaseState state) {
+        Pressure p = last;
+        if(p != null && p.state == state) {
+            return p;
+        }
+        p = compute(state);
+        last = p;
+        return p;
+    }
+
+    private Pressure compute(DatabaseState state) {
+        Options options = db.options;
+        double level = level(unflushedBytes(state.segments), options.writeSlowdownUnflushedBytes, options.writeStopUnflushedBytes);
+        if(!options.disableAutoMerge) {
+            List<Segment> disk = Merger.diskSegments(state.segments);
+            int segments = db.manifest != null ? LeveledMerger.levels(disk).get(0).size() : Merger.segmentCount(disk);
+            level = Math.max(level, level(segments, options.writeSlowdownSegments, options.writeStopSegments));
+            level = Math.max(level, level(pendingMergeBytes(disk, options, db.manifest != null), options.writeSlowdownPendingBytes, options.writeStopPendingBytes));
+        }
+        Statistics.WriteStall stall;
+        if(level < 0) {
+            stall = Statistics.WriteStall.none;
+        } else if(level >= 1) {
+            stall = Statistics.WriteStall.stop;
+        } else {
+            stall = Statistics.WriteStall.slowdown;
+        }
+        return new Pressure(state, stall, level);
+    }
+
+    /** @return less than 0 below the slowdown threshold, 0 to 1 up to the stop threshold, and 1 or more when stopped */
+    private static double level(long value, long slowdown, long stop) {
+        if(value < slowdown) {
+            return -1;
+        }
+        return (double) (value - slowdown) / (stop - slowdown);
+    }
+
+    /** @return the bytes of the memory and log segments waiting to be written to disk */
+    static long unflushedBytes(List<Segment> segments) {
+        long bytes = 0;
+        for(Segment s : segments) {
+            if(!(s instanceof DiskSegment)) {
+                bytes += s.size();
+            }
+        }
+        return bytes;
+    }
+
+    /** @return an estimate of the bytes that must be rewritten to bring the disk segments within their limits */
+    static long pendingMergeBytes(List<Segment> disk, Options options, boolean leveled) {
+        long bytes = 0;
+        if(leveled) {
+            var levels = LeveledMerger.levels(disk);
+            for(int level = 0; level < levels.size(); level++) {
+                long levelBytes = 0;
+                for(DiskSegment ds : levels.get(level)) {
+                    levelBytes += ds.size();
+                }
+                if(level == 0) {
+                    bytes += levels.get(0).size() >= options.levelZeroSegments ? levelBytes : 0;
+                } else {
+                    bytes += Math.max(0, levelBytes - LeveledMerger.maxLevelBytes(options, level));
+                }
+            }
+            return bytes;
+        }
+        var groups = Merger.groups(disk);
+        if(groups.size() <= options.maxSegments) {
+            return 0;
+        }
+        // the segments are merged into the largest, which is not rewritten
+        long largest = 0;
+        for(List<Segment> group : groups) {
+            long groupBytes = 0;
+            for(Segment s : group) {
+                groupBytes += s.size();
+            }
+            bytes += groupBytes;
+            largest = Math.max(largest, groupBytes);
+        }
+        return bytes - largest;
+    }
+}
@@ -33,6 +33,7 @@ import static com.robaho.jleveldb.Database.remove;
 
         _testWrite(false,true);
         _testWrite(true,true);
+        _testWriteConcurrent(true,8);
         _testBatch();
         _testWrite(false,false);
         _testRead();
@@ -70,6 +71,56 @@ import static com.robaho.jleveldb.Database.remove;
         System.out.println("close time "+duration+" ms");
         System.out.println("database size "+dbsize(dbname));
     }
+    /** writes from multiple threads, which share log writes and syncs through group commit */
+    private void _testWriteConcurrent(boolean sync,int nThreads) throws DatabaseException, IOException {
+        try {
+            remove(dbname);
+        } catch(DatabaseNotFound ignore){}
+
+        var n = nr;
+        if(sync) {
+            n = n / 100;
+        }
+        Options options = new Options(true);
+        options.enableSyncWrite = sync;
+        var db = open(dbname,options);
+        final int perThread = n / nThreads;
+        List<Thread> threads = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        for(int t=0;t<nThreads;t++) {
+            final int base = t * perThread;
+            Thread thread = new Thread(() -> {
+                try {
+                    for(int i=base;i<base+perThread;i++) {
+                        var key = String.format("%0"+kSize+"d",i).getBytes();
+                        db.put(key,value);
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        long end = System.currentTimeMillis();
+        long duration = end-start;
+        n = perThread * nThreads;
+        String mode = (sync ? "sync" : "no-sync") + " " + nThreads + " threads";
+        System.out.printf("write %s time %d records = %d ms, usec per op %.3f\n",mode,n,duration,(duration*1000.0)/n);
+        start = System.currentTimeMillis();
+        db.closeWithMerge(0);
+        end = System.currentTimeMillis();
+        duration = end-start;
+        System.out.println("close time "+duration+" ms");
+        System.out.println("database size "+dbsize(dbname));
+    }
     private void _testBatch() throws DatabaseException, IOException {
         remove(dbname);
         Options options = new Options(true);
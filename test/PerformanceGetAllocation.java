@@ -0,0 +1,92 @@
+import com.robaho.jleveldb.Database;
+import com.robaho.jleveldb.Options;
+import com.robaho.jleveldb.exceptions.DatabaseException;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** measures the bytes allocated per get(), comparing get(byte[]) to the allocation free get(byte[],ByteBuffer) */
+public class PerformanceGetAllocation {
+    static final int nr = 1000000;
+    static final int nGets = 1000000;
+
+    public static void main(String[] args) throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        Database db = Database.open("testdb/mydb", new Options(true));
+        for (int i = 0; i < nr; i++ ){
+            db.put(String.format("mykey%7d", i).getBytes(), String.format("myvalue%d", i).getBytes());
+        }
+        db.close();
+
+        db = Database.open("testdb/mydb", new Options(false));
+        System.out.println("number of segments "+db.stats().numberOfSegments);
+
+        // keys are created up front so that only the lookups are measured
+        var r = new Random();
+        byte[][] keys = new byte[nr/10][];
+        for(int i=0;i<keys.length;i++) {
+            keys[i] = String.format("mykey%7d", r.nextInt(nr)).getBytes();
+        }
+        byte[][] missing = new byte[nr/10][];
+        for(int i=0;i<missing.length;i++) {
+            missing[i] = String.format("mykey%7dx", r.nextInt(nr)).getBytes();
+        }
+
+        testGets(db, keys, missing);
+        db.close();
+
+        // without the block cache no blocks are decoded, so get(ByteBuffer) should not allocate at all
+        var options = new Options(false);
+        options.blockCacheSize = 0;
+        db = Database.open("testdb/mydb", options);
+        System.out.println("without block cache");
+        testGets(db, keys, missing);
+        db.close();
+    }
+
+    private static void testGets(Database db, byte[][] keys, byte[][] missing) throws IOException {
+        for(int pass=0;pass<3;pass++) {
+            testGet(db, keys, "get hit");
+            testGetBuffer(db, keys, "get(ByteBuffer) hit");
+            testGetBuffer(db, missing, "get(ByteBuffer) miss");
+        }
+    }
+
+    private static long allocatedBytes() {
+        var bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void testGet(Database db, byte[][] keys, String label) throws IOException {
+        long allocated = allocatedBytes();
+        var start = System.currentTimeMillis();
+        for(int i = 0; i < nGets; i++) {
+            if(db.get(keys[i%keys.length])==null) {
+                throw new IllegalStateException("key not found");
+            }
+        }
+        report(label, start, allocated);
+    }
+
+    private static void testGetBuffer(Database db, byte[][] keys, String label) throws IOException {
+        ByteBuffer dst = ByteBuffer.allocate(128);
+        long allocated = allocatedBytes();
+        var start = System.currentTimeMillis();
+        for(int i = 0; i < nGets; i++) {
+            dst.clear();
+            db.get(keys[i%keys.length],dst);
+        }
+        report(label, start, allocated);
+    }
+
+    private static void report(String label, long start, long allocated) {
+        var duration = System.currentTimeMillis()-start;
+        var bytes = allocatedBytes()-allocated;
+        System.out.printf("%s time %d ms, usec per op %.3f, bytes per op %.2f\n",label,duration,(duration*1000.0)/nGets,(double)bytes/nGets);
+    }
+}
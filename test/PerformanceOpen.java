@@ -0,0 +1,95 @@
+import com.robaho.jleveldb.Database;
+import com.robaho.jleveldb.Options;
+import com.robaho.jleveldb.exceptions.DatabaseException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+/**
+ * measures the time to open a database with M disk segments and N logs that were not written to disk, as after a
+ * crash with many rotated memory segments
+ */
+public class PerformanceOpen {
+    static final int keysPerSegment = 100000;
+    static final int keysPerLog = 50000;
+    static final String dbname = "testdb/mydb";
+    static final String logdb = "testdb/mylogdb";
+
+    public static void main(String[] args) throws DatabaseException, IOException {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int logs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        createSegments(segments);
+        Path log = createLog();
+        Set<String> files = Set.of(new File(dbname).list());
+        // the memory segments may be written to disk before each snapshot, so there can be more segments than requested
+        long diskSegments = files.stream().filter(name -> name.startsWith("keys.")).count();
+        for (int i = 0; i < 3; i++) {
+            // the logs are written to disk segments after the open, so they are copied again for each run
+            for (int l = 0; l < logs; l++) {
+                Files.copy(log, Path.of(dbname, "log." + (1000000 + l)), StandardCopyOption.REPLACE_EXISTING);
+            }
+            long start = System.currentTimeMillis();
+            var options = new Options();
+            options.disableAutoMerge = true;
+            var db = Database.open(dbname, options);
+            long duration = System.currentTimeMillis() - start;
+            System.out.printf("open %d segments %d logs = %d ms\n", diskSegments, logs, duration);
+            db.closeWithMerge(0);
+            removeNewFiles(files);
+        }
+        Files.delete(log);
+    }
+
+    private static void createSegments(int segments) throws DatabaseException, IOException {
+        try {
+            Database.remove(dbname);
+        } catch (DatabaseException ignore) {
+        }
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open(dbname, options);
+        for (int s = 0; s < segments; s++) {
+            for (int i = 0; i < keysPerSegment; i++) {
+                db.put(String.format("mykey%08d", s * keysPerSegment + i).getBytes(), String.format("myvalue%d", i).getBytes());
+            }
+            db.snapshot();
+        }
+        db.closeWithMerge(0);
+    }
+
+    /** @return a log file copied from a database before it is closed */
+    private static Path createLog() throws DatabaseException, IOException {
+        try {
+            Database.remove(logdb);
+        } catch (DatabaseException ignore) {
+        }
+        var options = new Options(true);
+        options.maxMemoryBytes = Integer.MAX_VALUE;
+        var db = Database.open(logdb, options);
+        for (int i = 0; i < keysPerLog; i++) {
+            db.put(String.format("logkey%08d", i).getBytes(), String.format("logvalue%d", i).getBytes());
+        }
+        Path copy = Path.of("testdb", "log.copy");
+        for (File file : new File(logdb).listFiles()) {
+            if (file.getName().startsWith("log.")) {
+                Files.copy(file.toPath(), copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        db.closeWithMerge(0);
+        return copy;
+    }
+
+    /** removes the disk segments written from the copied logs, so each run opens the same segments */
+    private static void removeNewFiles(Set<String> files) throws IOException {
+        for (File file : new File(dbname).listFiles()) {
+            if (!files.contains(file.getName())) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import com.robaho.jleveldb.*;
+import com.robaho.jleveldb.exceptions.DatabaseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** measures write throughput from 1 to 16 threads, each thread writes its own range of keys */
+public class PerformanceWriteScaling {
+    static final int nr = 2000000;
+
+    public static void main(String[] args) throws DatabaseException, IOException, InterruptedException {
+        for (int nThreads = 1; nThreads <= 16; nThreads *= 2) {
+            testWrite(nThreads, false);
+        }
+        for (int nThreads = 1; nThreads <= 16; nThreads *= 2) {
+            testWrite(nThreads, true);
+        }
+    }
+
+    private static void testWrite(int nThreads, boolean sync) throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.enableSyncWrite = sync;
+        Database db = Database.open("testdb/mydb", options);
+
+        // sync writes are much slower, so fewer are written
+        int n = sync ? nr / 100 : nr;
+        int perThread = n / nThreads;
+        List<Thread> threads = new ArrayList<>();
+        var start = System.currentTimeMillis();
+        for (int t = 0; t < nThreads; t++) {
+            final int base = t * perThread;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = base; i < base + perThread; i++) {
+                        db.put(String.format("mykey%8d", i).getBytes(), String.format("myvalue%d", i).getBytes());
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        var duration = System.currentTimeMillis() - start;
+        n = perThread * nThreads;
+
+        System.out.printf("%s insert %d threads, %d records = %dms, usec per op %.3f, ops per sec %.0f\n",
+                sync ? "sync" : "no-sync", nThreads, n, duration, (duration * 1000.0) / n, n * 1000.0 / duration);
+        db.closeWithMerge(0);
+    }
+}
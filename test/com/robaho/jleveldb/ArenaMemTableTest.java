@@ -0,0 +1,145 @@
+package com.robaho.jleveldb;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+public class ArenaMemTableTest extends TestCase {
+
+    private static byte[] randomKey(Random r) {
+        // includes negative bytes, which must sort as Arrays.compare does
+        byte[] key = new byte[1 + r.nextInt(8)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = (byte) (r.nextInt(8) - 4);
+        }
+        return key;
+    }
+
+    public void testArenaMemTable_Order() throws IOException {
+        var table = new ArenaMemTable();
+        assertEquals(0, table.size());
+        var expected = new TreeMap<byte[], byte[]>(Arrays::compare);
+        Random r = new Random(1);
+        for (int i = 0; i < 5000; i++) {
+            byte[] key = randomKey(r);
+            byte[] value = r.nextInt(10) == 0 ? KeyValue.EMPTY : ("value" + i).getBytes();
+            table.put(key, value);
+            expected.put(key, value);
+        }
+        assertTrue(table.size() > 0);
+
+        for (var e : expected.entrySet()) {
+            assertTrue(Arrays.equals(e.getValue(), table.get(e.getKey())));
+        }
+        assertNull(table.get(new byte[]{10}));
+
+        var itr = table.lookup(null, null);
+        for (var e : expected.entrySet()) {
+            assertTrue(Arrays.equals(e.getKey(), itr.peekKey()));
+            var kv = itr.next();
+            assertTrue(Arrays.equals(e.getKey(), kv.key));
+            assertTrue(Arrays.equals(e.getValue(), kv.value));
+        }
+        assertNull(itr.next());
+
+        for (int i = 0; i < 100; i++) {
+            byte[] lower = randomKey(r), upper = randomKey(r);
+            if (Arrays.compare(lower, upper) > 0) {
+                continue;
+            }
+            itr = table.lookup(lower, upper);
+            for (var key : expected.subMap(lower, true, upper, true).keySet()) {
+                assertTrue(Arrays.equals(key, itr.next().key));
+            }
+            assertNull(itr.next());
+        }
+    }
+
+    public void testArenaMemTable_Cursor() throws IOException {
+        var table = new ArenaMemTable();
+        var cursor = table.cursor();
+        cursor.seekToFirst();
+        assertFalse(cursor.valid());
+        cursor.seekToLast();
+        assertFalse(cursor.valid());
+
+        var expected = new TreeMap<byte[], byte[]>(Arrays::compare);
+        Random r = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            byte[] key = randomKey(r);
+            table.put(key, key);
+            expected.put(key, key);
+        }
+        cursor.seekToLast();
+        for (var key : expected.descendingKeySet()) {
+            assertTrue(Arrays.equals(key, cursor.key()));
+            assertTrue(Arrays.equals(key, cursor.value()));
+            cursor.prev();
+        }
+        assertFalse(cursor.valid());
+        for (int i = 0; i < 100; i++) {
+            byte[] key = randomKey(r);
+            cursor.seek(key);
+            var ceiling = expected.ceilingKey(key);
+            if (ceiling == null) {
+                assertFalse(cursor.valid());
+            } else {
+                assertTrue(Arrays.equals(ceiling, cursor.key()));
+                cursor.next();
+                var higher = expected.higherKey(ceiling);
+                assertEquals(higher != null, cursor.valid());
+            }
+        }
+    }
+
+    public void testArenaMemTable_Values() {
+        var table = new ArenaMemTable();
+        // larger than a quarter chunk, so it is allocated separately
+        byte[] large = new byte[100000];
+        new Random(3).nextBytes(large);
+        table.put("large".getBytes(), large);
+        table.put("small".getBytes(), "value".getBytes());
+        table.put("small".getBytes(), "value2".getBytes());
+
+        assertTrue(Arrays.equals(large, table.get("large".getBytes())));
+        ByteBuffer dst = ByteBuffer.allocate(large.length);
+        assertEquals(large.length, table.get("large".getBytes(), dst));
+        assertTrue(Arrays.equals(large, dst.array()));
+        assertEquals(-1, table.get("missing".getBytes(), dst));
+
+        var view = table.getView("small".getBytes());
+        assertTrue(view.isReadOnly());
+        assertEquals(ByteBuffer.wrap("value2".getBytes()), view);
+        assertNull(table.getView("missing".getBytes()));
+        assertTrue(table.size() >= large.length + 10);
+    }
+
+    public void testArenaMemTable_Concurrent() throws IOException, InterruptedException {
+        var table = new ArenaMemTable();
+        final int nThreads = 4, perThread = 20000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            final int base = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    byte[] key = String.format("%08d", i * nThreads + base).getBytes();
+                    table.put(key, key);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        var itr = table.lookup(null, null);
+        for (int i = 0; i < nThreads * perThread; i++) {
+            var kv = itr.next();
+            assertEquals(String.format("%08d", i), new String(kv.key));
+            assertTrue(Arrays.equals(kv.key, kv.value));
+        }
+        assertNull(itr.next());
+    }
+}
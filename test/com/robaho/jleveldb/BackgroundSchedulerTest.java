@@ -0,0 +1,98 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class BackgroundSchedulerTest extends TestCase {
+    private static BackgroundScheduler.Job job(boolean flush, double urgency, Runnable r) {
+        return new BackgroundScheduler.Job(flush) {
+            @Override
+            public void run() {
+                r.run();
+            }
+            @Override
+            double urgency() {
+                return urgency;
+            }
+            @Override
+            boolean cancelled() {
+                return false;
+            }
+        };
+    }
+
+    public void testPriority() throws InterruptedException {
+        // a single merge runs at once, the other thread is kept for flushes
+        var scheduler = new BackgroundScheduler(2);
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var done = new CountDownLatch(4);
+        List<String> order = new CopyOnWriteArrayList<>();
+        scheduler.submit(job(false, 0, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        for (int urgency : new int[]{1, 3, 2}) {
+            scheduler.submit(job(false, urgency, () -> {
+                order.add("merge" + urgency);
+                done.countDown();
+            }));
+        }
+        scheduler.submit(job(true, 0, () -> {
+            order.add("flush");
+            done.countDown();
+        }));
+        // the flush does not wait for the merge slot
+        for (int i = 0; i < 500 && order.isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("flush"), order);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("flush", "merge3", "merge2", "merge1"), order);
+    }
+
+    public void testManyDatabases() throws DatabaseException, IOException, InterruptedException {
+        List<Database> dbs = new ArrayList<>();
+        for (int d = 0; d < 10; d++) {
+            String path = "testdb/mydb" + d;
+            try {
+                Database.remove(path);
+            } catch(DatabaseException ignore){}
+            dbs.add(Database.open(path, new Options(true)));
+        }
+        for (int s = 0; s < 12; s++) {
+            for (Database db : dbs) {
+                for (int i = 0; i < 100; i++) {
+                    db.put(("mykey" + i).getBytes(), ("myvalue" + s).getBytes());
+                }
+                db.snapshot();
+            }
+        }
+        // each database is merged without a polling thread, once its segments are flushed
+        for (Database db : dbs) {
+            for (int i = 0; i < 1000 && Merger.segmentCount(db.getState().segments) > db.options.maxSegments + 1; i++) {
+                Thread.sleep(10);
+            }
+            assertTrue(Merger.segmentCount(db.getState().segments) <= db.options.maxSegments + 1);
+            assertTrue(Arrays.equals("myvalue11".getBytes(), db.get("mykey1".getBytes())));
+        }
+        for (Database db : dbs) {
+            db.closeWithMerge(0);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.robaho.jleveldb;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class BlockCacheTest extends TestCase {
+    private static KeyBlock newBlock(String... keys) throws IOException {
+        var buffer = new byte[Constants.keyBlockSize];
+        int offset = 0;
+        for (String key : keys) {
+            byte[] b = key.getBytes();
+            buffer[offset++] = (byte) b.length;
+            buffer[offset++] = 0;
+            System.arraycopy(b, 0, buffer, offset, b.length);
+            offset += b.length + 12;
+        }
+        buffer[offset++] = 0;
+        buffer[offset] = (byte) 0x80;
+        return KeyBlock.decode(buffer);
+    }
+
+    public void testKeyBlock() throws IOException {
+        var kb = newBlock("mykey1", "mykey2", "mykey3");
+        assertEquals(3, kb.count);
+        assertEquals(1, kb.find("mykey2".getBytes()));
+        assertEquals(-1, kb.find("mykey0".getBytes()));
+        assertEquals(-4, kb.find("mykey4".getBytes()));
+        assertTrue(Arrays.equals("mykey3".getBytes(), kb.key(2)));
+    }
+
+    public void testBlockCache() throws IOException {
+        var cache = new BlockCache(1024 * 1024);
+        var kb = newBlock("mykey1");
+        assertNull(cache.get(1, 0));
+        cache.put(1, 0, kb);
+        cache.put(1, 1, kb);
+        cache.put(2, 0, kb);
+        assertSame(kb, cache.get(1, 0));
+        assertEquals(1, cache.hits.sum());
+        assertEquals(1, cache.misses.sum());
+
+        assertSame(kb, cache.peek(1, 1));
+        assertNull(cache.peek(3, 0));
+        assertEquals(1, cache.hits.sum());
+        assertEquals(1, cache.misses.sum());
+
+        cache.evict(1);
+        assertNull(cache.get(1, 0));
+        assertNull(cache.get(1, 1));
+        assertSame(kb, cache.get(2, 0));
+    }
+
+    public void testBlockCacheCapacity() throws IOException {
+        var kb = newBlock("mykey1");
+        // each shard can hold a single block
+        var cache = new BlockCache(kb.memory() * 16);
+        for (int i = 0; i < 10000; i++) {
+            cache.put(1, i, kb);
+        }
+        assertTrue(cache.size() <= kb.memory() * 16);
+        assertSame(kb, cache.get(1, 9999));
+    }
+
+    public void testDiskSegmentWithCache() throws IOException {
+        File dir = new File("testdb");
+        IOUtils.purgeDirectory(dir);
+        dir.mkdirs();
+
+        var m = MemorySegment.newMemoryOnlySegment();
+        for (int i = 0; i < 100000; i++) {
+            m.put(("mykey" + i).getBytes(), ("myvalue" + i).getBytes());
+        }
+        var options = new Options();
+        options.blockCache = new BlockCache(1024 * 1024);
+
+        var ds = DiskIO.writeAndLoadSegment("testdb/keys.0.0", "testdb/data.0.0", m.lookup(null, null), false, options);
+        int gets = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < 100000; i += 7, gets++) {
+                assertTrue(Arrays.equals(("myvalue" + i).getBytes(), ds.get(("mykey" + i).getBytes())));
+            }
+            assertNull(ds.get("mykey".getBytes()));
+            assertNull(ds.get("mykey99999x".getBytes()));
+            gets += 2;
+        }
+        assertTrue(options.blockCache.hits.sum() > 0);
+        // binary search probes are not counted, only the block each get searches
+        assertTrue(options.blockCache.hits.sum() + options.blockCache.misses.sum() <= gets);
+
+        ds.evictCached();
+        assertEquals(0, options.blockCache.size());
+    }
+}
@@ -0,0 +1,30 @@
+package com.robaho.jleveldb;
+
+import junit.framework.TestCase;
+
+public class BloomFilterTest extends TestCase {
+    public void testBloomFilter() {
+        var builder = new BloomFilter.Builder(10);
+        for(int i=0;i<10000;i++) {
+            builder.add(("mykey"+i).getBytes());
+        }
+        var filter = new BloomFilter(builder.build());
+        for(int i=0;i<10000;i++) {
+            if(!filter.mayContain(("mykey"+i).getBytes())) {
+                fail("false negative for mykey"+i);
+            }
+        }
+        int falsePositives=0;
+        for(int i=10000;i<20000;i++) {
+            if(filter.mayContain(("mykey"+i).getBytes())) {
+                falsePositives++;
+            }
+        }
+        // 10 bits per key should be about 1%
+        assertTrue("false positive rate too high "+falsePositives,falsePositives < 200);
+    }
+    public void testEmptyBloomFilter() {
+        var filter = new BloomFilter(new BloomFilter.Builder(10).build());
+        assertFalse(filter.mayContain("mykey".getBytes()));
+    }
+}
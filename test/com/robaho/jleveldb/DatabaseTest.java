@@ -0,0 +1,290 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseClosedException;
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class DatabaseTest extends TestCase {
+    public void testConcurrentSyncWrites() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.enableSyncWrite = true;
+        var db = Database.open("testdb/mydb", options);
+
+        // puts and batches from several threads are written through group commit
+        int nThreads = 8, n = 250;
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        final var writer = db;
+        for(int t=0;t<nThreads;t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                try {
+                    for(int i=0;i<n;i++) {
+                        if(i%10==0) {
+                            var batch = new WriteBatch();
+                            batch.put(("batch"+thread+"."+i+".1").getBytes(),"value1".getBytes());
+                            batch.put(("batch"+thread+"."+i+".2").getBytes(),"value2".getBytes());
+                            writer.write(batch);
+                        } else {
+                            writer.put(("mykey"+thread+"."+i).getBytes(),("myvalue"+i).getBytes());
+                        }
+                    }
+                } catch (IOException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+
+        // simulate a crash, so the values are recovered from the logs
+        db.lockFile.unlock();
+        db.open = false;
+        db = Database.open("testdb/mydb", options);
+        for(int t=0;t<nThreads;t++) {
+            for(int i=0;i<n;i++) {
+                if(i%10==0) {
+                    assertTrue(Arrays.equals("value1".getBytes(),db.get(("batch"+t+"."+i+".1").getBytes())));
+                    assertTrue(Arrays.equals("value2".getBytes(),db.get(("batch"+t+"."+i+".2").getBytes())));
+                } else {
+                    assertTrue(Arrays.equals(("myvalue"+i).getBytes(),db.get(("mykey"+t+"."+i).getBytes())));
+                }
+            }
+        }
+        db.close();
+    }
+
+    public void testConcurrentRemove() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+        var db = Database.open("testdb/mydb", new Options(true));
+
+        // each value is put once, so it can only be returned by one remove
+        int n = 5000;
+        Set<String> removed = ConcurrentHashMap.newKeySet();
+        List<String> duplicates = Collections.synchronizedList(new ArrayList<>());
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            try {
+                for(int i=0;i<n;i++) {
+                    db.put("mykey".getBytes(),("myvalue"+i).getBytes());
+                }
+            } catch (IOException e) {
+                errors.add(e);
+            }
+        }));
+        for(int t=0;t<2;t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    for(int i=0;i<n;i++) {
+                        byte[] value = db.remove("mykey".getBytes());
+                        if(value!=null && !removed.add(new String(value))) {
+                            duplicates.add(new String(value));
+                        }
+                    }
+                } catch (IOException e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.isEmpty());
+        assertTrue(duplicates.isEmpty());
+        // the key is absent after a remove returns, unless a later value was put
+        byte[] last = db.get("mykey".getBytes());
+        if(last!=null) {
+            assertFalse(removed.contains(new String(last)));
+        }
+        db.close();
+    }
+
+    public void testWriteFailure() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+        var options = new Options(true);
+        byte[] bad = "bad".getBytes();
+        options.userKeyCompare = (a, b) -> {
+            if(Arrays.equals(a, bad) || Arrays.equals(b, bad))
+                throw new IllegalStateException("bad key");
+            return Arrays.compare(a, b);
+        };
+        var db = Database.open("testdb/mydb", options);
+        db.put("mykey1".getBytes(), "myvalue1".getBytes());
+        try {
+            db.put(bad, "value".getBytes());
+            fail("should throw IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        // the failed write left the writer queue, so later writes and close do not wait for it
+        db.put("mykey2".getBytes(), "myvalue2".getBytes());
+        assertTrue(Arrays.equals("myvalue2".getBytes(), db.get("mykey2".getBytes())));
+        db.close();
+    }
+
+    public void testWriteAfterClose() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", new Options(true));
+        db.put("mykey".getBytes(),"myvalue".getBytes());
+        db.close();
+        try {
+            db.put("mykey".getBytes(),"myvalue".getBytes());
+            fail("should throw DatabaseClosedException");
+        } catch (com.robaho.jleveldb.exceptions.DatabaseClosedException expected) {
+        }
+    }
+
+    public void testOffHeapMemTable() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.offHeapMemTable = true;
+        options.maxMemoryBytes = 1024*1024;
+        var db = Database.open("testdb/mydb", options);
+        // enough to rotate the memory segment several times
+        for(int i=0;i<50000;i++) {
+            db.put(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        for(int i=0;i<50000;i+=2) {
+            db.remove(("mykey"+i).getBytes());
+        }
+        for(int i=0;i<50000;i++) {
+            var value = db.get(("mykey"+i).getBytes());
+            if(i%2==0) {
+                assertNull(value);
+            } else {
+                assertTrue(Arrays.equals(("myvalue"+i).getBytes(),value));
+            }
+        }
+        db.close();
+
+        db = Database.open("testdb/mydb", options);
+        assertNull(db.get("mykey0".getBytes()));
+        assertTrue(Arrays.equals("myvalue1".getBytes(),db.get("mykey1".getBytes())));
+        db.close();
+    }
+
+    public void testOpenSegmentsAndLogs() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open("testdb/mydb", options);
+        for(int s=0;s<10;s++) {
+            db.put(("mykey"+s).getBytes(),("myvalue"+s).getBytes());
+            db.snapshot();
+        }
+        db.closeWithMerge(0);
+
+        // logs that were not written to disk, and a log that was written to disk segment 1 but not removed
+        for(int l=0;l<5;l++) {
+            var lf = new LogFile("testdb/mydb",1000+l,options);
+            lf.write(("logkey"+l).getBytes(),("logvalue"+l).getBytes());
+            lf.close();
+        }
+        var lf = new LogFile("testdb/mydb",1,options);
+        lf.write("mykey0".getBytes(),"stale".getBytes());
+        lf.close();
+
+        db = Database.open("testdb/mydb", options);
+        assertFalse(new File("testdb/mydb/log.1").exists());
+        for(int s=0;s<10;s++) {
+            assertTrue(Arrays.equals(("myvalue"+s).getBytes(),db.get(("mykey"+s).getBytes())));
+        }
+        for(int l=0;l<5;l++) {
+            assertTrue(Arrays.equals(("logvalue"+l).getBytes(),db.get(("logkey"+l).getBytes())));
+        }
+        db.close();
+    }
+
+    public void testAsync() throws Exception {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.enableSyncWrite = true;
+        var db = Database.open("testdb/mydb", options);
+
+        // the writes queued while one is in progress are written together, in order
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for(int i=0;i<1000;i++) {
+            futures.add(db.putAsync(("mykey"+i%100).getBytes(),("myvalue"+i).getBytes()));
+        }
+        var batch = new WriteBatch();
+        batch.remove("mykey0".getBytes());
+        futures.add(db.writeAsync(batch));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        assertNull(db.getAsync("mykey0".getBytes()).get());
+        assertTrue(Arrays.equals("myvalue999".getBytes(),db.getAsync("mykey99".getBytes()).get()));
+        var values = db.multiGetAsync(List.of("mykey0".getBytes(),"mykey1".getBytes(),"nokey".getBytes())).get();
+        assertEquals(3,values.size());
+        assertNull(values.get(0));
+        assertTrue(Arrays.equals("myvalue901".getBytes(),values.get(1)));
+        assertNull(values.get(2));
+
+        try {
+            db.putAsync(new byte[0],"myvalue".getBytes()).get();
+            fail("should throw invalid key length");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        db.close();
+
+        try {
+            db.putAsync("mykey".getBytes(),"myvalue".getBytes()).get();
+            fail("should throw DatabaseClosedException");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof DatabaseClosedException);
+        }
+        try {
+            db.getAsync("mykey".getBytes()).get();
+            fail("should throw DatabaseClosedException");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof DatabaseClosedException);
+        }
+
+        db = Database.open("testdb/mydb", options);
+        assertNull(db.get("mykey0".getBytes()));
+        assertTrue(Arrays.equals("myvalue998".getBytes(),db.get("mykey98".getBytes())));
+        db.close();
+    }
+}
@@ -198,6 +198,94 @@ public class DiskSegmentTest extends TestCase {
             fail("incorrect values");
         }
     }
+    public void testDiskSegmentFilter() throws IOException {
+        File dir = new File("testdb");
+        IOUtils.purgeDirectory(dir);
+        dir.mkdirs();
+
+        var m = MemorySegment.newMemoryOnlySegment();
+        for(int i=0;i<1000;i++) {
+            m.put(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        m.remove("mykey500".getBytes());
+
+        var itr = m.lookup(null, null);
+
+        DiskIO.writeAndLoadSegment("testdb/keys.0.0", "testdb/data.0.0", itr, false);
+        assertTrue(new File("testdb/filter.0.0").exists());
+
+        var ds = new DiskSegment("testdb/keys.0.0", "testdb/data.0.0",null);
+        assertNotNull(ds.filter);
+        assertEquals(3,ds.files().size());
+        for(int i=0;i<1000;i++) {
+            assertTrue(ds.filter.mayContain(("mykey"+i).getBytes()));
+        }
+        assertTrue(Arrays.equals("myvalue1".getBytes(),ds.get("mykey1".getBytes())));
+        // removed keys must remain in the filter so they hide older segments
+        assertEquals(0,ds.get("mykey500".getBytes()).length);
+        assertNull(ds.get("mykey1000".getBytes()));
+
+        ds.removeSegment();
+        assertFalse(new File("testdb/filter.0.0").exists());
+    }
+    public void testRestartPoints() throws IOException {
+        File dir = new File("testdb");
+        IOUtils.purgeDirectory(dir);
+        dir.mkdirs();
+
+        var m = MemorySegment.newMemoryOnlySegment();
+        for(int i=0;i<10000;i++) {
+            m.put(String.format("mykey%05d",i).getBytes(),("myvalue"+i).getBytes());
+        }
+        var ds = DiskIO.writeAndLoadSegment("testdb/keys.0.0", "testdb/data.0.0", m.lookup(null,null), false);
+
+        byte[] block = new byte[Constants.keyBlockSize];
+        ds.keyFile.readAt(block,0);
+        assertEquals(Constants.blockFormatRestarts,block[Constants.keyBlockSize-1]);
+        assertEquals(0,DiskSegment.restartOffset(block,"mykey00000".getBytes()));
+        assertTrue(DiskSegment.restartOffset(block,"mykey00020".getBytes())>0);
+
+        for(int i=0;i<10000;i++) {
+            var value = ds.get(String.format("mykey%05d",i).getBytes());
+            assertTrue(Arrays.equals(("myvalue"+i).getBytes(),value));
+        }
+        assertNull(ds.get("mykey00100x".getBytes()));
+
+        var itr = ds.lookup("mykey00123".getBytes(),"mykey00456".getBytes());
+        int count=0;
+        KeyValue kv;
+        while((kv=itr.next())!=null) {
+            if(count==0) {
+                assertTrue(Arrays.equals("mykey00123".getBytes(),kv.key));
+            }
+            count++;
+        }
+        assertEquals(334,count);
+    }
+    public void testLegacyKeyBlocks() throws IOException {
+        File dir = new File("testdb");
+        IOUtils.purgeDirectory(dir);
+        dir.mkdirs();
+
+        // a key file written before restart points, keys are prefix compressed and the block ends in zeros
+        var keys = new LittleEndianDataOutputStream(new java.io.FileOutputStream("testdb/keys.0.0"));
+        keys.writeShort(6); keys.write("mykey1".getBytes()); keys.writeLong(0); keys.writeInt(8);
+        keys.writeShort(Constants.compressedBit | (5<<8) | 1); keys.write("2".getBytes()); keys.writeLong(8); keys.writeInt(8);
+        keys.writeShort(Constants.endOfBlock);
+        keys.write(new byte[Constants.keyBlockSize-2-6-12-2-1-12-2]);
+        keys.close();
+        var data = new java.io.FileOutputStream("testdb/data.0.0");
+        data.write("myvalue1myvalue2".getBytes());
+        data.close();
+
+        var ds = new DiskSegment("testdb/keys.0.0", "testdb/data.0.0",null);
+        assertTrue(Arrays.equals("myvalue1".getBytes(),ds.get("mykey1".getBytes())));
+        assertTrue(Arrays.equals("myvalue2".getBytes(),ds.get("mykey2".getBytes())));
+        assertNull(ds.get("mykey3".getBytes()));
+        var itr = ds.lookup("mykey2".getBytes(),null);
+        assertTrue(Arrays.equals("mykey2".getBytes(),itr.next().key));
+        assertNull(itr.next());
+    }
     public void testEmptySegment() throws IOException {
         File dir = new File("testdb");
         IOUtils.purgeDirectory(dir);
@@ -234,4 +322,43 @@ public class DiskSegmentTest extends TestCase {
         }
         assertEquals(0,count);
     }
+    public void testDiskSegmentCursor() throws IOException {
+        File dir = new File("testdb");
+        IOUtils.purgeDirectory(dir);
+        dir.mkdirs();
+
+        var m = MemorySegment.newMemoryOnlySegment();
+        int n = 10000;
+        for(int i=0;i<n;i++) {
+            m.put(String.format("mykey%05d",i*2).getBytes(),("myvalue"+i).getBytes());
+        }
+        var ds = DiskIO.writeAndLoadSegment("testdb/keys.0.0","testdb/data.0.0",m.lookup(null,null),false);
+        assertTrue(ds.keyBlocks > 1);
+
+        var c = ds.cursor();
+        assertFalse(c.valid());
+        c.seekToLast();
+        for(int i=n-1;i>=0;i--) {
+            assertTrue(c.valid());
+            assertTrue(Arrays.equals(String.format("mykey%05d",i*2).getBytes(),c.key()));
+            assertTrue(Arrays.equals(("myvalue"+i).getBytes(),c.value()));
+            c.prev();
+        }
+        assertFalse(c.valid());
+
+        // seek to a key between entries, across every block boundary
+        for(int i=0;i<n;i++) {
+            c.seek(String.format("mykey%05d",i*2-1).getBytes());
+            assertTrue(Arrays.equals(String.format("mykey%05d",i*2).getBytes(),c.key()));
+        }
+        c.seek("mykey99999".getBytes());
+        assertFalse(c.valid());
+
+        c.seekToFirst();
+        int count=0;
+        for(;c.valid();c.next()) {
+            count++;
+        }
+        assertEquals(n,count);
+    }
 }
@@ -0,0 +1,66 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class FlusherTest extends TestCase {
+    private static void waitForFlush(Database db) throws InterruptedException {
+        // the flushed segment is removed after it is replaced in the database state
+        for(int i=0;i<1000 && (Flusher.firstUnflushed(db.getState().segments)!=null || db.inFlush.get());i++) {
+            Thread.sleep(10);
+        }
+        assertNull(Flusher.firstUnflushed(db.getState().segments));
+    }
+
+    private static int countLogFiles() {
+        return new File("testdb/mydb").list((dir, name) -> name.startsWith("log.")).length;
+    }
+
+    public void testFlushRotatedSegments() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open("testdb/mydb", options);
+
+        // enough data to rotate the memory segment several times
+        for(int i=0;i<100000;i++) {
+            db.put(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        waitForFlush(db);
+        assertTrue(db.getState().segments.size() > 1);
+        // only the active memory segment has a log file
+        assertEquals(1, countLogFiles());
+
+        for(int i=0;i<100000;i+=1000) {
+            assertTrue(Arrays.equals(("myvalue"+i).getBytes(),db.get(("mykey"+i).getBytes())));
+        }
+        db.close();
+    }
+
+    public void testFlushRecoveredLogs() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open("testdb/mydb", options);
+        db.put("mykey".getBytes(),"myvalue".getBytes());
+        // simulate a crash by releasing the database without closing it
+        db.lockFile.unlock();
+        db.open = false;
+
+        db = Database.open("testdb/mydb", options);
+        waitForFlush(db);
+        assertEquals(0, countLogFiles());
+        assertTrue(Arrays.equals("myvalue".getBytes(),db.get("mykey".getBytes())));
+        db.close();
+    }
+}
@@ -0,0 +1,167 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IngestTest extends TestCase {
+    private static Database create(Options options) throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+        options.createIfNeeded = true;
+        var db = Database.open("testdb/mydb", options);
+        for (int i = 0; i < 100; i++) {
+            db.put(("mykey" + i).getBytes(), "old".getBytes());
+        }
+        db.snapshot();
+        // unflushed writes are older than the ingested segment
+        for (int i = 0; i < 100; i += 2) {
+            db.put(("mykey" + i).getBytes(), "memory".getBytes());
+        }
+        return db;
+    }
+
+    private static String writeSegment(String name, int from, int to) throws IOException {
+        new File("testdb/ingest").mkdirs();
+        try (var w = new SegmentWriter("testdb/ingest", name, new Options())) {
+            for (int i = from; i < to; i++) {
+                w.put(String.format("key%05d", i).getBytes(), ("ingested" + i).getBytes());
+            }
+            return w.finish();
+        }
+    }
+
+    private static void assertValue(Database db, String key, String value) throws IOException {
+        byte[] actual = db.get(key.getBytes());
+        assertNotNull(actual);
+        assertEquals(value, new String(actual));
+    }
+
+    public void testIngest() throws DatabaseException, IOException {
+        var db = create(new Options());
+        List<KeyValue> entries = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            entries.add(new KeyValue(("mykey" + i).getBytes(), "ingested".getBytes()));
+        }
+        entries.sort((a, b) -> Arrays.compare(a.key, b.key));
+        entries.set(0, new KeyValue(entries.get(0).key));
+        db.ingest(entries.iterator());
+        db.put("mykey1".getBytes(), "new".getBytes());
+
+        assertNull(db.get("mykey0".getBytes()));
+        assertValue(db, "mykey1", "new");
+        assertValue(db, "mykey2", "ingested");
+        assertValue(db, "mykey60", "memory");
+        assertValue(db, "mykey61", "old");
+        db.close();
+
+        db = Database.open("testdb/mydb", new Options());
+        assertNull(db.get("mykey0".getBytes()));
+        assertValue(db, "mykey1", "new");
+        assertValue(db, "mykey2", "ingested");
+        assertValue(db, "mykey60", "memory");
+        assertValue(db, "mykey61", "old");
+        for (String name : new File("testdb/mydb").list()) {
+            assertFalse(name.endsWith(".tmp"));
+        }
+        db.close();
+    }
+
+    public void testIngestFiles() throws DatabaseException, IOException {
+        var options = new Options();
+        options.disableAutoMerge = true;
+        var db = create(options);
+        // written out of key order, the segments are added in key order
+        var files = List.of(writeSegment("b", 1000, 2000), writeSegment("a", 0, 1000));
+        int segments = db.getState().segments.size();
+        db.ingestFiles(files);
+        assertFalse(new File(files.get(0)).exists());
+
+        // the memory segment was written to disk, and the two segments are partitions of one
+        var state = db.getState();
+        assertEquals(segments + 3, state.segments.size());
+        assertEquals(segments + 2, Merger.segmentCount(state.segments));
+        assertValue(db, "key00000", "ingested0");
+        assertValue(db, "key01999", "ingested1999");
+        assertValue(db, "mykey0", "memory");
+        db.close();
+
+        db = Database.open("testdb/mydb", options);
+        assertValue(db, "key00999", "ingested999");
+        assertValue(db, "key01000", "ingested1000");
+        assertValue(db, "mykey1", "old");
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", options);
+        assertValue(db, "key01500", "ingested1500");
+        db.close();
+    }
+
+    public void testOverlap() throws DatabaseException, IOException {
+        var db = create(new Options());
+        var files = List.of(writeSegment("a", 0, 1000), writeSegment("b", 999, 2000));
+        try {
+            db.ingestFiles(files);
+            fail("should throw IOException");
+        } catch (IOException expected) {
+        }
+        // the files are moved back
+        for (String file : files) {
+            assertTrue(new File(file).exists());
+        }
+        assertNull(db.get("key00000".getBytes()));
+        assertValue(db, "mykey0", "memory");
+        db.close();
+    }
+
+    public void testUnsorted() throws IOException {
+        new File("testdb/ingest").mkdirs();
+        try (var w = new SegmentWriter("testdb/ingest", "a", new Options())) {
+            w.put("b".getBytes(), "value".getBytes());
+            try {
+                w.put("a".getBytes(), "value".getBytes());
+                fail("should throw IOException");
+            } catch (IOException expected) {
+            }
+        }
+        // the incomplete segment is removed
+        assertFalse(new File("testdb/ingest/keys.a.tmp").exists());
+    }
+
+    public void testIngestLeveled() throws DatabaseException, IOException {
+        var options = new Options();
+        options.leveledCompaction = true;
+        var db = create(options);
+        db.ingestFiles(List.of(writeSegment("a", 0, 1000)));
+        assertValue(db, "key00500", "ingested500");
+        db.close();
+
+        db = Database.open("testdb/mydb", options);
+        assertValue(db, "key00500", "ingested500");
+        assertValue(db, "mykey0", "memory");
+        db.close();
+    }
+
+    public void testInterrupted() throws DatabaseException, IOException {
+        var db = create(new Options());
+        db.close();
+        // an ingest that did not complete leaves its staged files
+        String keyFile = writeSegment("a", 0, 1000);
+        Files.move(Path.of(keyFile), Path.of("testdb/mydb/keys.0.7.tmp"));
+        Files.move(Path.of("testdb/ingest/data.a"), Path.of("testdb/mydb/data.0.7.tmp"));
+
+        db = Database.open("testdb/mydb", new Options());
+        assertNull(db.get("key00000".getBytes()));
+        assertFalse(new File("testdb/mydb/keys.0.7.tmp").exists());
+        assertFalse(new File("testdb/mydb/data.0.7.tmp").exists());
+        db.close();
+    }
+}
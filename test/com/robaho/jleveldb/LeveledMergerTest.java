@@ -0,0 +1,173 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+public class LeveledMergerTest extends TestCase {
+    private static Options leveledOptions() {
+        var options = new Options(true);
+        options.leveledCompaction = true;
+        options.disableAutoMerge = true;
+        options.levelOneBytes = 256 * 1024;
+        options.levelSegmentBytes = 64 * 1024;
+        return options;
+    }
+
+    private static void waitForFlush(Database db) throws InterruptedException {
+        for(int i=0;i<1000 && (Flusher.firstUnflushed(db.getState().segments)!=null || db.inFlush.get());i++) {
+            Thread.sleep(10);
+        }
+    }
+
+    /** checks that the segments are ordered by level, and that the segments of a level other than 0 do not overlap */
+    private static void checkLevels(Database db) throws IOException {
+        List<Segment> segments = db.getState().segments;
+        var levels = LeveledMerger.levels(segments);
+        assertEquals(LeveledMerger.order(segments), segments);
+        for(int level=1;level<levels.size();level++) {
+            var segs = levels.get(level);
+            for(int i=1;i<segs.size();i++) {
+                assertTrue(Arrays.compare(segs.get(i-1).lastKey(), segs.get(i).firstKey()) < 0);
+            }
+        }
+    }
+
+    private static void check(Database db, TreeMap<String,String> expected) throws IOException {
+        for(int i=0;i<20000;i++) {
+            String key = String.format("mykey%05d",i);
+            byte[] value = db.get(key.getBytes());
+            if(expected.containsKey(key)) {
+                assertEquals(expected.get(key), new String(value));
+            } else {
+                assertNull(value);
+            }
+        }
+        var itr = db.lookup(null,null);
+        for(var e : expected.entrySet()) {
+            var kv = itr.next();
+            assertEquals(e.getKey(), new String(kv.key));
+            assertEquals(e.getValue(), new String(kv.value));
+        }
+        assertNull(itr.next());
+    }
+
+    public void testLeveledCompaction() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = leveledOptions();
+        var db = Database.open("testdb/mydb", options);
+
+        var expected = new TreeMap<String,String>();
+        var r = new Random(1);
+        byte[] pad = new byte[80];
+        Arrays.fill(pad,(byte)'x');
+        for(int i=0;i<60000;i++) {
+            String key = String.format("mykey%05d",r.nextInt(20000));
+            if(r.nextInt(5)==0) {
+                db.remove(key.getBytes());
+                expected.remove(key);
+            } else {
+                String value = "value"+i+new String(pad);
+                db.put(key.getBytes(),value.getBytes());
+                expected.put(key,value);
+            }
+            if(i%2500==0) {
+                // rotates the memory segment, so there are more level 0 segments
+                db.snapshot();
+            }
+            if(i%10000==0) {
+                waitForFlush(db);
+                Merger.mergeSegments0(db, options.maxSegments, false);
+                checkLevels(db);
+            }
+        }
+        waitForFlush(db);
+        Merger.mergeSegments0(db, options.maxSegments, false);
+        checkLevels(db);
+
+        var levels = LeveledMerger.levels(db.getState().segments);
+        assertTrue(levels.get(0).size() < options.levelZeroSegments);
+        assertTrue(levels.size() > 2);
+        for(int level=1;level<levels.size();level++) {
+            long bytes = 0;
+            for(var ds : levels.get(level)) {
+                bytes += ds.size();
+            }
+            assertTrue(bytes <= LeveledMerger.maxLevelBytes(options, level) || level==levels.size()-1);
+        }
+        check(db, expected);
+        db.close();
+
+        // the levels are restored from the manifest
+        db = Database.open("testdb/mydb", options);
+        assertTrue(LeveledMerger.levels(db.getState().segments).size() > 2);
+        checkLevels(db);
+        check(db, expected);
+
+        db.closeWithMerge(1);
+        db = Database.open("testdb/mydb", new Options());
+        assertTrue(db.options.leveledCompaction);
+        levels = LeveledMerger.levels(db.getState().segments);
+        assertEquals(0, levels.get(0).size());
+        for(int level=1;level<levels.size()-1;level++) {
+            assertEquals(0, levels.get(level).size());
+        }
+        checkLevels(db);
+        check(db, expected);
+        db.close();
+    }
+
+    public void testConvertToLeveled() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", new Options(true));
+        for(int i=0;i<1000;i++) {
+            db.put(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        db.close();
+
+        db = Database.open("testdb/mydb", leveledOptions());
+        assertTrue(new File("testdb/mydb/"+Manifest.FILENAME).exists());
+        for(int i=0;i<1000;i++) {
+            assertTrue(Arrays.equals(("myvalue"+i).getBytes(),db.get(("mykey"+i).getBytes())));
+        }
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", new Options());
+        assertEquals(1, LeveledMerger.levels(db.getState().segments).get(1).size());
+        assertTrue(Arrays.equals("myvalue1".getBytes(),db.get("mykey1".getBytes())));
+        db.close();
+    }
+
+    public void testUnlistedSegmentsRemoved() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", leveledOptions());
+        db.put("mykey".getBytes(),"myvalue".getBytes());
+        db.close();
+
+        // the output of an interrupted compaction
+        var m = MemorySegment.newMemoryOnlySegment();
+        m.put("mykey".getBytes(),"stale".getBytes());
+        DiskIO.writeAndLoadSegment("testdb/mydb/keys.1000.1000","testdb/mydb/data.1000.1000",m.lookup(null,null),false).close();
+
+        db = Database.open("testdb/mydb", leveledOptions());
+        assertFalse(new File("testdb/mydb/keys.1000.1000").exists());
+        assertFalse(new File("testdb/mydb/data.1000.1000").exists());
+        assertTrue(Arrays.equals("myvalue".getBytes(),db.get("mykey".getBytes())));
+        db.close();
+    }
+}
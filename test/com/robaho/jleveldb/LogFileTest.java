@@ -2,10 +2,14 @@ package com.robaho.jleveldb;
 
 import junit.framework.TestCase;
 
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.ConcurrentSkipListMap;
 
 public class LogFileTest extends TestCase {
@@ -17,10 +21,10 @@ public class LogFileTest extends TestCase {
 
         var lf = new LogFile(path,0,new Options());
         lf.write("mykey".getBytes(),"myvalue".getBytes());
-        lf.startBatch(2);
-        lf.write("batchkey1".getBytes(),"batchvalue1".getBytes());
-        lf.write("batchkey2".getBytes(),"batchvalue2".getBytes());
-        lf.endBatch(2);
+        var batch = new WriteBatch();
+        batch.put("batchkey1".getBytes(),"batchvalue1".getBytes());
+        batch.put("batchkey2".getBytes(),"batchvalue2".getBytes());
+        lf.write(batch);
         lf.close();
     }
     static void testKeyValue(ConcurrentSkipListMap<byte[],byte[]> s,String key,String value){
@@ -39,6 +43,112 @@ public class LogFileTest extends TestCase {
         testKeyValue(s,"batchkey1","batchvalue1");
         testKeyValue(s,"batchkey2","batchvalue2");
     }
+    public void testLogFile_WriteGroup() throws IOException {
+        String path = "testdb";
+        File dir = new File(path);
+        dir.mkdir();
+        IOUtils.purgeDirectory(dir);
+
+        var single = new WriteBatch();
+        single.put("mykey".getBytes(),"myvalue".getBytes());
+        var batch = new WriteBatch();
+        batch.put("batchkey1".getBytes(),"batchvalue1".getBytes());
+        batch.put("batchkey2".getBytes(),"batchvalue2".getBytes());
+        var remove = new WriteBatch();
+        remove.remove("batchkey1".getBytes());
+
+        var options = new Options();
+        options.enableSyncWrite = true;
+        var lf = new LogFile(path,0,options);
+        lf.writeGroup(List.of(single,batch,new WriteBatch(),remove));
+        lf.close();
+
+        var s = LogFile.readLogFile("testdb/log.0",new Options());
+        assertEquals(3,s.size());
+        testKeyValue(s,"mykey","myvalue");
+        testKeyValue(s,"batchkey1","");
+        testKeyValue(s,"batchkey2","batchvalue2");
+    }
+    /** writes 1000 single entry records and a batch larger than a block */
+    private static void writeLargeLogFile() throws IOException {
+        String path = "testdb";
+        File dir = new File(path);
+        dir.mkdir();
+        IOUtils.purgeDirectory(dir);
+
+        var lf = new LogFile(path,0,new Options());
+        for(int i=0;i<1000;i++) {
+            lf.write(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        var batch = new WriteBatch();
+        for(int i=0;i<1000;i++) {
+            batch.put(("batchkey"+i).getBytes(),new byte[100]);
+        }
+        lf.writeGroup(List.of(batch));
+        lf.close();
+    }
+    public void testLogFile_Fragments() throws IOException {
+        writeLargeLogFile();
+        assertTrue(new File("testdb/log.0").length() > 3 * LogFile.BLOCK_SIZE);
+        var s = LogFile.readLogFile("testdb/log.0",new Options());
+        assertEquals(2000,s.size());
+        testKeyValue(s,"mykey999","myvalue999");
+        assertTrue(Arrays.equals(new byte[100],s.get("batchkey999".getBytes())));
+    }
+    public void testLogFile_TornTail() throws IOException {
+        writeLargeLogFile();
+        try (var raf = new RandomAccessFile("testdb/log.0","rw")) {
+            raf.setLength(raf.length()-10);
+        }
+        // the partial batch is discarded
+        var s = LogFile.readLogFile("testdb/log.0",new Options());
+        assertEquals(1000,s.size());
+        testKeyValue(s,"mykey999","myvalue999");
 
+        var options = new Options();
+        options.batchReadMode = Options.BatchReadMode.returnOpenError;
+        try {
+            LogFile.readLogFile("testdb/log.0",options);
+            fail("should throw an exception");
+        } catch (IOException expected) {
+        }
+    }
+    public void testLogFile_Corrupt() throws IOException {
+        writeLargeLogFile();
+        try (var raf = new RandomAccessFile("testdb/log.0","rw")) {
+            // within the data of the first block
+            raf.seek(LogFile.HEADER_SIZE + LogFile.BLOCK_SIZE / 2);
+            int b = raf.read();
+            raf.seek(LogFile.HEADER_SIZE + LogFile.BLOCK_SIZE / 2);
+            raf.write(b ^ 0xFF);
+        }
+        // replay stops at the corrupt record
+        var s = LogFile.readLogFile("testdb/log.0",new Options());
+        assertTrue(s.size() > 0 && s.size() < 1000);
+        testKeyValue(s,"mykey0","myvalue0");
+        assertNull(s.get("mykey999".getBytes()));
+    }
+    public void testLogFile_OldFormat() throws IOException {
+        String path = "testdb";
+        File dir = new File(path);
+        dir.mkdir();
+        IOUtils.purgeDirectory(dir);
 
+        try (var os = new DataOutputStream(new FileOutputStream("testdb/log.0"))) {
+            os.writeInt(5);
+            os.write("mykey".getBytes());
+            os.writeInt(7);
+            os.write("myvalue".getBytes());
+            os.writeInt(-1);
+            os.writeInt(9);
+            os.write("batchkey1".getBytes());
+            os.writeInt(11);
+            os.write("batchvalue1".getBytes());
+            os.writeInt(-1);
+        }
+        var s = LogFile.readLogFile("testdb/log.0",new Options());
+        assertEquals(2,s.size());
+        testKeyValue(s,"mykey","myvalue");
+        testKeyValue(s,"batchkey1","batchvalue1");
+    }
 }
@@ -1,9 +1,12 @@
 package com.robaho.jleveldb;
 
+import com.robaho.jleveldb.exceptions.DatabaseException;
 import junit.framework.TestCase;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MergerTest extends TestCase {
@@ -83,4 +86,242 @@ public class MergerTest extends TestCase {
             fail("should be empty, found key="+(new String(kv.key))+" value="+(new String(kv.value)));
         }
     }
+
+    private static Segment segmentOfSize(int n) throws IOException {
+        var m = MemorySegment.newMemoryOnlySegment();
+        m.put("mykey".getBytes(), new byte[n]);
+        return m;
+    }
+
+    public void testPickRun() throws IOException {
+        var segments = new ArrayList<Segment>();
+        for (int i = 0; i < 10; i++) {
+            segments.add(segmentOfSize(100 + i));
+        }
+        var run = Merger.pickRun(segments, new ArrayList<>(), 4);
+        assertEquals(segments.subList(0, 5), run);
+
+        // the second run starts at the smallest segment not being merged, and stops before a segment being merged
+        var merging = new ArrayList<List<Segment>>();
+        merging.add(segments.subList(0, 2));
+        merging.add(segments.subList(6, 8));
+        run = Merger.pickRun(segments, merging, 4);
+        assertEquals(segments.subList(2, 6), run);
+
+        // a segment without an available neighbour is not merged
+        merging.add(segments.subList(2, 6));
+        run = Merger.pickRun(segments, merging, 1);
+        assertEquals(segments.subList(8, 10), run);
+
+        // the runs being merged already reduce the segment count enough
+        assertNull(Merger.pickRun(segments, merging, 8));
+    }
+
+    public void testConcurrentMerges() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        options.maxConcurrentMerges = 4;
+        var db = Database.open("testdb/mydb", options);
+        for (int s = 0; s < 24; s++) {
+            for (int i = 0; i < 1000; i++) {
+                db.put(("mykey" + i).getBytes(), ("myvalue" + s).getBytes());
+            }
+            db.put(("segment" + s).getBytes(), ("myvalue" + s).getBytes());
+            db.snapshot();
+        }
+        for (int i = 0; i < 1000 && (Flusher.firstUnflushed(db.getState().segments) != null || db.inFlush.get()); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(db.getState().segments.size() >= 24);
+
+        Merger.mergeSegments0(db, 2, false);
+        assertTrue(db.getState().segments.size() <= 2);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(Arrays.equals("myvalue23".getBytes(), db.get(("mykey" + i).getBytes())));
+        }
+        for (int s = 0; s < 24; s++) {
+            assertTrue(Arrays.equals(("myvalue" + s).getBytes(), db.get(("segment" + s).getBytes())));
+        }
+        db.close();
+    }
+
+    public void testSubcompactions() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        options.maxSubcompactions = 4;
+        options.subcompactionMinBytes = 1;
+        var db = Database.open("testdb/mydb", options);
+        for (int s = 0; s < 4; s++) {
+            for (int i = 0; i < 20000; i++) {
+                db.put(String.format("mykey%06d", i).getBytes(), ("myvalue" + s).getBytes());
+            }
+            db.remove(String.format("mykey%06d", s).getBytes());
+            db.snapshot();
+        }
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", options);
+        var segments = db.getState().segments;
+        assertEquals(4, segments.size());
+        assertEquals(1, Merger.segmentCount(segments));
+        for (int i = 1; i < segments.size(); i++) {
+            var prev = (DiskSegment) segments.get(i - 1);
+            var ds = (DiskSegment) segments.get(i);
+            assertEquals(i, ds.partition);
+            assertTrue(Arrays.compare(prev.lastKey(), ds.firstKey()) < 0);
+        }
+        for (int i = 0; i < 20000; i++) {
+            var value = db.get(String.format("mykey%06d", i).getBytes());
+            if (i == 3) {
+                assertNull(value);
+            } else {
+                assertTrue(Arrays.equals("myvalue3".getBytes(), value));
+            }
+        }
+        var itr = db.lookup(null, null);
+        int count = 0;
+        while (itr.next() != null) {
+            count++;
+        }
+        assertEquals(19999, count);
+
+        // the partitions are merged together with the newer segments
+        db.put("mykey000000".getBytes(), "myvalue4".getBytes());
+        db.closeWithMerge(1);
+
+        // the partitions of an interrupted merge
+        var m = MemorySegment.newMemoryOnlySegment();
+        m.put("mykey000001".getBytes(), "stale".getBytes());
+        DiskIO.writeAndLoadSegment("testdb/mydb/keys.1000.1000.0.2", "testdb/mydb/data.1000.1000.0.2", m.lookup(null, null), false).close();
+
+        db = Database.open("testdb/mydb", options);
+        assertFalse(new File("testdb/mydb/keys.1000.1000.0.2").exists());
+        assertEquals(1, Merger.segmentCount(db.getState().segments));
+        assertTrue(Arrays.equals("myvalue4".getBytes(), db.get("mykey000000".getBytes())));
+        assertTrue(Arrays.equals("myvalue3".getBytes(), db.get("mykey000001".getBytes())));
+        assertTrue(Arrays.equals("myvalue3".getBytes(), db.get("mykey019999".getBytes())));
+        db.close();
+    }
+
+    public void testTargetSegmentBytes() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        options.targetSegmentBytes = 64 * 1024;
+        var db = Database.open("testdb/mydb", options);
+        for (int s = 0; s < 2; s++) {
+            for (int i = 0; i < 20000; i++) {
+                db.put(String.format("mykey%06d", i).getBytes(), ("myvalue" + s).getBytes());
+            }
+            db.snapshot();
+        }
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", options);
+        var segments = db.getState().segments;
+        assertTrue(segments.size() > 4);
+        assertEquals(1, Merger.segmentCount(segments));
+        List<String> firstKeys = new ArrayList<>();
+        for (Segment s : segments) {
+            firstKeys.add(new String(((DiskSegment) s).firstKey()));
+        }
+
+        // only the partition containing the key is rewritten, the others are reused
+        db.put("mykey010000".getBytes(), "myvalue2".getBytes());
+        db.remove("mykey010001".getBytes());
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", options);
+        segments = db.getState().segments;
+        assertEquals(firstKeys.size(), segments.size());
+        assertEquals(1, Merger.segmentCount(segments));
+        for (int i = 0; i < segments.size(); i++) {
+            assertEquals(firstKeys.get(i), new String(((DiskSegment) segments.get(i)).firstKey()));
+        }
+        for (int i = 0; i < 20000; i++) {
+            var value = db.get(String.format("mykey%06d", i).getBytes());
+            if (i == 10000) {
+                assertTrue(Arrays.equals("myvalue2".getBytes(), value));
+            } else if (i == 10001) {
+                assertNull(value);
+            } else {
+                assertTrue(Arrays.equals("myvalue1".getBytes(), value));
+            }
+        }
+        var itr = db.lookup(null, null);
+        int count = 0;
+        while (itr.next() != null) {
+            count++;
+        }
+        assertEquals(19999, count);
+        db.close();
+    }
+
+    public void testRemovals() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        options.removalDensity = 0.5;
+        var db = Database.open("testdb/mydb", options);
+        for (String prefix : new String[]{"a", "b"}) {
+            for (int i = 0; i < 1000; i++) {
+                db.put(String.format("%s%04d", prefix, i).getBytes(), "value".getBytes());
+            }
+            db.snapshot();
+        }
+        for (int i = 0; i < 1000; i++) {
+            db.remove(String.format("b%04d", i).getBytes());
+        }
+        db.remove("a0005".getBytes());
+        db.snapshot();
+        for (int i = 0; i < 1000 && (Flusher.firstUnflushed(db.getState().segments) != null || db.inFlush.get()); i++) {
+            Thread.sleep(10);
+        }
+
+        var segments = Merger.diskSegments(db.getState().segments);
+        assertEquals(3, segments.size());
+        assertEquals(1001, ((DiskSegment) segments.get(2)).removals());
+        var run = Merger.pickRemovalRun(segments, List.of(), options.removalDensity);
+        assertEquals(segments.subList(1, 3), run);
+
+        // the segment count is within maxSegments, so the segments are merged for their removals
+        Merger.mergeSegments0(db, db.options.maxSegments, false);
+        segments = Merger.diskSegments(db.getState().segments);
+        assertEquals(2, segments.size());
+        // only the removal of a key that the older segment may contain is kept
+        var merged = (DiskSegment) segments.get(1);
+        assertEquals(1, merged.entries());
+        assertEquals(1, merged.removals());
+        assertNull(Merger.pickRemovalRun(segments, List.of(), options.removalDensity));
+        assertNull(db.get("a0005".getBytes()));
+        assertNull(db.get("b0000".getBytes()));
+        assertTrue(Arrays.equals("value".getBytes(), db.get("a0006".getBytes())));
+        db.close();
+
+        // the counts of the segments loaded at open are read in the background
+        db = Database.open("testdb/mydb", options);
+        segments = Merger.diskSegments(db.getState().segments);
+        for (int i = 0; i < 500 && ((DiskSegment) segments.get(1)).entries() < 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1000, ((DiskSegment) segments.get(0)).entries());
+        assertEquals(0, ((DiskSegment) segments.get(0)).removals());
+        assertEquals(1, ((DiskSegment) segments.get(1)).entries());
+        assertEquals(1, ((DiskSegment) segments.get(1)).removals());
+        db.close();
+    }
 }
@@ -3,6 +3,8 @@ package com.robaho.jleveldb;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class MultiSegmentTest extends TestCase {
@@ -46,4 +48,40 @@ public class MultiSegmentTest extends TestCase {
         }
         assertEquals(150000,count);
     }
+    public void testMultiSegmentRecency() throws IOException {
+        // each key is in a random subset of the segments, the value is from the most recent segment
+        var r = new java.util.Random(1);
+        var segments = new ArrayList<Segment>();
+        var expected = new String[1000];
+        for(int s=0;s<7;s++) {
+            var m = MemorySegment.newMemoryOnlySegment();
+            for(int i=0;i<expected.length;i++) {
+                if(r.nextInt(3)==0) {
+                    var value = "value"+s+"."+i;
+                    m.put(String.format("mykey%04d",i).getBytes(),value.getBytes());
+                    expected[i] = value;
+                }
+            }
+            segments.add(m);
+        }
+        var ms = new MultiSegment(segments);
+        var itr = ms.lookup(null,null);
+        for(int i=0;i<expected.length;i++) {
+            if(expected[i]==null)
+                continue;
+            KeyValue kv = itr.next();
+            assertTrue(Arrays.equals(String.format("mykey%04d",i).getBytes(),kv.key));
+            assertEquals(expected[i],new String(kv.value));
+        }
+        assertNull(itr.next());
+        assertNull(itr.next());
+    }
+    public void testMultiSegmentRemove() throws IOException {
+        var m1 = MemorySegment.newMemoryOnlySegment();
+        m1.put("mykey".getBytes(),"myvalue".getBytes());
+        var m2 = MemorySegment.newMemoryOnlySegment();
+        m2.remove("mykey".getBytes());
+        var ms = new MultiSegment(List.of(m1,m2));
+        assertEquals(0,ms.get("mykey".getBytes()).length);
+    }
 }
@@ -0,0 +1,56 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class RateLimiterTest extends TestCase {
+    public void testRateLimiter() {
+        var limiter = new RateLimiter(1024 * 1024);
+        long start = System.nanoTime();
+        for(int i=0;i<8;i++) {
+            limiter.acquire(64 * 1024);
+        }
+        long millis = (System.nanoTime()-start)/1000000;
+        // 512k at 1M per second, less the 100ms burst
+        assertTrue("limited for "+millis+" ms",millis >= 350);
+    }
+    public void testSetRate() {
+        var limiter = new RateLimiter(1024);
+        limiter.acquire(1024);
+        limiter.setRate(0);
+        long start = System.nanoTime();
+        for(int i=0;i<100;i++) {
+            limiter.acquire(1024 * 1024);
+        }
+        assertTrue((System.nanoTime()-start)/1000000 < 100);
+    }
+    public void testLimitedMerge() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        options.compactionBytesPerSecond = 1024 * 1024;
+        var db = Database.open("testdb/mydb", options);
+        for (int s = 0; s < 2; s++) {
+            for (int i = 0; i < 10000; i++) {
+                db.put(("mykey" + i).getBytes(), new byte[50]);
+            }
+            db.snapshot();
+        }
+        long start = System.nanoTime();
+        db.closeWithMerge(1);
+        long millis = (System.nanoTime()-start)/1000000;
+        // the merge writes about 700k
+        assertTrue("merged in "+millis+" ms",millis >= 300);
+
+        db = Database.open("testdb/mydb", options);
+        db.setCompactionRate(0);
+        assertTrue(Arrays.equals(new byte[50],db.get("mykey1".getBytes())));
+        db.close();
+    }
+}
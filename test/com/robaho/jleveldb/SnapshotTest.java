@@ -4,7 +4,12 @@ import com.robaho.jleveldb.exceptions.DatabaseException;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
 
 public class SnapshotTest extends TestCase {
     public void testSnapshotGet() throws DatabaseException, IOException {
@@ -30,4 +35,152 @@ public class SnapshotTest extends TestCase {
         }
         db.close();
     }
+
+    public void testSnapshotGetBuffer() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", new Options(true));
+
+        db.put("mykey".getBytes(), "myvalue".getBytes());
+        db.put("mykey2".getBytes(), "myvalue2".getBytes());
+        db.remove("mykey2".getBytes());
+        db.closeWithMerge(1);
+
+        db = Database.open("testdb/mydb", new Options(false));
+        db.remove("mykey".getBytes());
+        var s = db.snapshot();
+        db.put("mykey".getBytes(), "newvalue".getBytes());
+
+        var dst = ByteBuffer.allocate(16);
+        assertEquals(-1, s.get("mykey".getBytes(), dst));
+        assertEquals(-1, s.get("mykey2".getBytes(), dst));
+        assertEquals(-1, s.get("mykey3".getBytes(), dst));
+
+        assertEquals(8, db.get("mykey".getBytes(), dst));
+        dst.flip();
+        assertEquals(ByteBuffer.wrap("newvalue".getBytes()), dst);
+
+        try {
+            db.get("mykey".getBytes(), ByteBuffer.allocate(4));
+            fail("should throw BufferOverflowException");
+        } catch (BufferOverflowException expected) {
+        }
+        db.close();
+    }
+
+    public void testSnapshotView() throws DatabaseException, IOException, InterruptedException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open("testdb/mydb", options);
+        db.put("mykey".getBytes(), "myvalue".getBytes());
+        db.snapshot();
+        db.put("mykey2".getBytes(), "myvalue2".getBytes());
+        db.closeWithMerge(0);
+
+        db = Database.open("testdb/mydb", options);
+        assertEquals(2, db.stats().numberOfSegments);
+        db.put("mykey3".getBytes(), "myvalue3".getBytes());
+
+        var s = db.snapshot();
+        var view = s.getView("mykey".getBytes());
+        var view3 = s.getView("mykey3".getBytes());
+        assertNull(s.getView("mykey4".getBytes()));
+        assertTrue(view.isReadOnly());
+        assertEquals(1, db.stats().pinnedSnapshots);
+
+        // the merge replaces the segments referenced by the view, they must not be removed until the snapshot is closed
+        Merger.mergeSegments0(db, 1, false);
+        assertEquals(1, db.stats().numberOfSegments);
+        s = null;
+        System.gc();
+        Thread.sleep(100);
+
+        assertEquals(ByteBuffer.wrap("myvalue".getBytes()), view);
+        assertEquals(ByteBuffer.wrap("myvalue3".getBytes()), view3);
+
+        s = db.snapshot();
+        s.getView("mykey".getBytes());
+        s.close();
+        assertEquals(1, db.stats().pinnedSnapshots);
+        try {
+            s.getView("mykey".getBytes());
+            fail("should throw IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        db.close();
+    }
+    public void testSnapshotCursor() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var options = new Options(true);
+        options.disableAutoMerge = true;
+        var db = Database.open("testdb/mydb", options);
+
+        // keys are spread over disk and memory segments, with removes and overwrites in the newer segments
+        var expected = new TreeMap<String,String>(String::compareTo);
+        var r = new Random(1);
+        for(int s=0;s<4;s++) {
+            for(int i=0;i<2000;i++) {
+                String key = String.format("mykey%05d",r.nextInt(5000));
+                if(r.nextInt(4)==0) {
+                    db.remove(key.getBytes());
+                    expected.remove(key);
+                } else {
+                    String value = "value"+s+"."+i;
+                    db.put(key.getBytes(),value.getBytes());
+                    expected.put(key,value);
+                }
+            }
+            db.snapshot();
+            if(s==1) {
+                db.closeWithMerge(0);
+                db = Database.open("testdb/mydb", options);
+            }
+        }
+
+        var c = db.snapshot().cursor();
+        c.seekToLast();
+        for(var e : expected.descendingMap().entrySet()) {
+            assertTrue(c.valid());
+            assertEquals(e.getKey(),new String(c.key()));
+            assertEquals(e.getValue(),new String(c.value()));
+            c.prev();
+        }
+        assertFalse(c.valid());
+
+        // random walk changing direction, compared to the expected map
+        String key = null;
+        for(int i=0;i<10000;i++) {
+            Map.Entry<String,String> e;
+            if(key==null || r.nextInt(50)==0) {
+                key = String.format("mykey%05d",r.nextInt(5100));
+                c.seek(key.getBytes());
+                e = expected.ceilingEntry(key);
+            } else if(r.nextBoolean()) {
+                c.next();
+                e = expected.higherEntry(key);
+            } else {
+                c.prev();
+                e = expected.lowerEntry(key);
+            }
+            if(e==null) {
+                assertFalse(c.valid());
+                key = null;
+                continue;
+            }
+            assertTrue(c.valid());
+            key = e.getKey();
+            assertEquals(key,new String(c.key()));
+            assertEquals(e.getValue(),new String(c.value()));
+        }
+        db.close();
+    }
 }
@@ -0,0 +1,89 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+public class WriteBatchTest extends TestCase {
+    public void testEncoding() {
+        var batch = new WriteBatch(0);
+        batch.put("mykey".getBytes(),"myvalue".getBytes());
+        batch.remove("mykey2".getBytes());
+        assertEquals(2,batch.count());
+        assertEquals(4+4+5+4+7+4+6+4,batch.size());
+
+        var r = batch.reader();
+        assertTrue(r.next());
+        assertTrue(Arrays.equals("mykey".getBytes(),r.key()));
+        assertTrue(Arrays.equals("myvalue".getBytes(),r.value()));
+        assertTrue(r.next());
+        assertTrue(Arrays.equals("mykey2".getBytes(),r.key()));
+        assertSame(KeyValue.EMPTY,r.value());
+        assertFalse(r.next());
+
+        // the record is decoded from the bytes alone
+        r = new WriteBatch.Reader(Arrays.copyOf(batch.data,batch.size()),batch.size());
+        assertTrue(r.next());
+        assertTrue(r.next());
+        assertFalse(r.next());
+
+        r = new WriteBatch.Reader(Arrays.copyOf(batch.data,batch.size()-1),batch.size()-1);
+        assertTrue(r.next());
+        try {
+            r.next();
+            fail("should throw IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    public void testClearAndAppend() {
+        var batch = new WriteBatch();
+        for(int i=0;i<1000;i++) {
+            batch.put(("mykey"+i).getBytes(),("myvalue"+i).getBytes());
+        }
+        byte[] data = batch.data;
+        batch.clear();
+        assertEquals(0,batch.count());
+        assertFalse(batch.reader().next());
+        batch.put("mykey".getBytes(),"myvalue".getBytes());
+        // the buffer is reused
+        assertSame(data,batch.data);
+
+        var other = new WriteBatch();
+        other.remove("mykey".getBytes());
+        batch.append(other);
+        assertEquals(2,batch.count());
+        var r = batch.reader();
+        assertTrue(r.next());
+        assertTrue(r.next());
+        assertEquals(0,r.valueLength);
+        assertFalse(r.next());
+    }
+
+    public void testReuse() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", new Options(true));
+        var batch = new WriteBatch();
+        for(int i=0;i<100;i++) {
+            batch.clear();
+            for(int j=0;j<10;j++) {
+                batch.put(("mykey"+i+"."+j).getBytes(),("myvalue"+i).getBytes());
+            }
+            batch.remove(("mykey"+i+".0").getBytes());
+            db.write(batch);
+        }
+        db.close();
+
+        // the batches are written to disk on close
+        db = Database.open("testdb/mydb", new Options());
+        assertNull(db.get("mykey99.0".getBytes()));
+        assertTrue(Arrays.equals("myvalue99".getBytes(),db.get("mykey99.9".getBytes())));
+        assertTrue(Arrays.equals("myvalue0".getBytes(),db.get("mykey0.1".getBytes())));
+        db.close();
+    }
+}
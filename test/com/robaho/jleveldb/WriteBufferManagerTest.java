@@ -0,0 +1,155 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class WriteBufferManagerTest extends TestCase {
+    private static Database open(String path, Options options) throws DatabaseException {
+        try {
+            Database.remove(path);
+        } catch(DatabaseException ignore){}
+        return Database.open(path, options);
+    }
+
+    public void testFlushLargest() throws DatabaseException, IOException, InterruptedException {
+        // each database stays below maxMemoryBytes, but together they exceed the buffer
+        var manager = new WriteBufferManager(2 * 1024 * 1024);
+        var options = new Options(true);
+        options.maxMemoryBytes = 4 * 1024 * 1024;
+        options.writeBufferManager = manager;
+        List<Database> dbs = new ArrayList<>();
+        for (int d = 0; d < 5; d++) {
+            dbs.add(open("testdb/mydb" + d, options));
+        }
+        byte[] value = new byte[100];
+        for (int i = 0; i < 5000; i++) {
+            for (Database db : dbs) {
+                db.put(("mykey" + i).getBytes(), value);
+            }
+        }
+        for (int i = 0; i < 500 && manager.getMemoryUsage() > manager.getBufferSize(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(manager.getMemoryUsage() <= manager.getBufferSize());
+        int diskSegments = 0;
+        for (Database db : dbs) {
+            diskSegments += Merger.diskSegments(db.getState().segments).size();
+            assertTrue(Arrays.equals(value, db.get("mykey0".getBytes())));
+        }
+        assertTrue(diskSegments > 0);
+        for (Database db : dbs) {
+            db.close();
+        }
+        assertEquals(0, manager.getMemoryUsage());
+    }
+
+    public void testStall() throws DatabaseException, IOException, InterruptedException {
+        var manager = new WriteBufferManager(1024 * 1024);
+        var options = new Options(true);
+        options.maxMemoryBytes = 4 * 1024 * 1024;
+        options.writeBufferManager = manager;
+        var db = open("testdb/mydb", options);
+
+        // prevents the rotated memory segments from being written to disk
+        assertTrue(db.inFlush.compareAndSet(false, true));
+        var error = new AtomicReference<Exception>();
+        Thread writer = new Thread(() -> {
+            try {
+                byte[] value = new byte[1000];
+                for (int i = 0; i < 2000; i++) {
+                    db.put(("mykey" + i).getBytes(), value);
+                }
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        writer.join(500);
+        assertTrue(writer.isAlive());
+        assertEquals(Statistics.WriteStall.stop, db.stats().writeStall);
+
+        db.inFlush.set(false);
+        db.lock();
+        try {
+            Flusher.maybeFlush(db);
+        } finally {
+            db.unlock();
+        }
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertNull(error.get());
+        assertTrue(db.stats().stalledWrites > 0);
+        db.close();
+    }
+
+    public void testFailedDatabase() throws DatabaseException, IOException, InterruptedException {
+        var manager = new WriteBufferManager(1024 * 1024);
+        var options = new Options(true);
+        options.maxMemoryBytes = 4 * 1024 * 1024;
+        options.writeBufferManager = manager;
+        var failed = open("testdb/mydb0", options);
+        var db = open("testdb/mydb1", options);
+
+        // the failed database holds more than the buffer size
+        assertTrue(failed.inFlush.compareAndSet(false, true));
+        Thread writer = new Thread(() -> {
+            try {
+                byte[] value = new byte[1000];
+                for (int i = 0; i < 2000; i++) {
+                    failed.put(("mykey" + i).getBytes(), value);
+                }
+            } catch (Exception ignore) {
+            }
+        });
+        writer.start();
+        for (int i = 0; i < 500 && (Flusher.firstUnflushed(failed.getState().segments) == null || manager.getMemoryUsage() < manager.getBufferSize()); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(manager.getMemoryUsage() >= manager.getBufferSize());
+
+        // the flush fails since the database directory is removed
+        try (var files = Files.walk(Path.of("testdb/mydb0"))) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+        failed.inFlush.set(false);
+        failed.lock();
+        try {
+            Flusher.maybeFlush(failed);
+        } finally {
+            failed.unlock();
+        }
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertNotNull(failed.error);
+
+        var error = new AtomicReference<Exception>();
+        writer = new Thread(() -> {
+            try {
+                byte[] value = new byte[1000];
+                for (int i = 0; i < 2000; i++) {
+                    db.put(("mykey" + i).getBytes(), value);
+                }
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        assertNull(error.get());
+        db.close();
+        try {
+            failed.close();
+        } catch (Exception ignore) {
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.robaho.jleveldb;
+
+import com.robaho.jleveldb.exceptions.DatabaseClosedException;
+import com.robaho.jleveldb.exceptions.DatabaseException;
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class WriteControllerTest extends TestCase {
+    /** creates a database with 6 disk segments */
+    private static void createSegments() throws DatabaseException, IOException {
+        try {
+            Database.remove("testdb/mydb");
+        } catch(DatabaseException ignore){}
+
+        var db = Database.open("testdb/mydb", new Options(true));
+        for (int s = 0; s < 6; s++) {
+            for (int i = 0; i < 100; i++) {
+                db.put(("mykey" + i).getBytes(), ("myvalue" + s).getBytes());
+            }
+            db.snapshot();
+        }
+        db.closeWithMerge(0);
+    }
+
+    public void testSlowdown() throws DatabaseException, IOException {
+        createSegments();
+
+        var options = new Options();
+        options.writeSlowdownSegments = 2;
+        options.writeStopSegments = 7;
+        var db = Database.open("testdb/mydb", options);
+        assertEquals(Statistics.WriteStall.slowdown, db.stats().writeStall);
+        for (int i = 0; i < 100; i++) {
+            db.put(("mykey" + i).getBytes(), "myvalue".getBytes());
+        }
+        var stats = db.stats();
+        assertEquals(100, stats.stalledWrites);
+        assertTrue(stats.writeStallNanos > 0);
+        assertTrue(Arrays.equals("myvalue".getBytes(), db.get("mykey1".getBytes())));
+        db.close();
+    }
+
+    public void testStop() throws DatabaseException, IOException, InterruptedException {
+        createSegments();
+
+        var options = new Options();
+        options.writeSlowdownSegments = 2;
+        options.writeStopSegments = 4;
+        var db = Database.open("testdb/mydb", options);
+        assertEquals(Statistics.WriteStall.stop, db.stats().writeStall);
+
+        // the segments are within maxSegments so they are not merged, and the write waits until the database is closed
+        var error = new AtomicReference<Exception>();
+        Thread writer = new Thread(() -> {
+            try {
+                db.put("mykey".getBytes(), "myvalue".getBytes());
+            } catch (Exception e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+        writer.join(300);
+        assertTrue(writer.isAlive());
+        db.close();
+        writer.join();
+        assertTrue(error.get() instanceof DatabaseClosedException);
+    }
+
+    public void testNoStallWithoutAutoMerge() throws DatabaseException, IOException {
+        createSegments();
+
+        var options = new Options();
+        options.disableAutoMerge = true;
+        options.writeSlowdownSegments = 2;
+        options.writeStopSegments = 4;
+        var db = Database.open("testdb/mydb", options);
+        assertEquals(Statistics.WriteStall.none, db.stats().writeStall);
+        db.put("mykey".getBytes(), "myvalue".getBytes());
+        assertEquals(0, db.stats().stalledWrites);
+        db.close();
+    }
+}